@@ -0,0 +1,134 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.LogicalTypeAnnotation.TimestampLogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled per-column write plan for a flat Parquet schema.
+ *
+ * Each column carries its field index, primitive type and the reader/writer pair
+ * resolved once at compile time: the reader converts the current JSON token into a
+ * {@link TelemetryRecord} slot and the writer pushes that slot into a Parquet
+ * {@link RecordConsumer}. Writing a record is therefore a straight loop over the
+ * columns with no type dispatch per value. The plan is immutable and shared by
+ * every writer.
+ */
+final class ColumnWritePlan {
+
+    /**
+     * Reads the parser's current scalar token into a record slot.
+     */
+    @FunctionalInterface
+    interface ValueReader {
+        void read(JsonParser parser, TelemetryRecord record, int fieldIndex) throws IOException;
+    }
+
+    /**
+     * Pushes a present record slot into the record consumer.
+     */
+    @FunctionalInterface
+    interface ValueWriter {
+        void write(RecordConsumer consumer, TelemetryRecord record, int fieldIndex);
+    }
+
+    record Column(String name, int fieldIndex, PrimitiveTypeName type, ValueReader reader, ValueWriter writer) {
+    }
+
+    private final MessageType schema;
+    private final List<Column> columns;
+    private final Column[] columnArray;
+    private final Map<String, Column> columnsByName;
+
+    private ColumnWritePlan(MessageType schema, List<Column> columns) {
+        this.schema = schema;
+        this.columns = Collections.unmodifiableList(columns);
+        this.columnArray = columns.toArray(new Column[0]);
+        this.columnsByName = new HashMap<>(columns.size() * 2);
+        for (Column column : columns) {
+            columnsByName.put(column.name(), column);
+        }
+    }
+
+    static ColumnWritePlan compile(MessageType schema) {
+        List<Column> columns = new ArrayList<>(schema.getFieldCount());
+        for (int i = 0; i < schema.getFieldCount(); i++) {
+            Type field = schema.getType(i);
+            if (!field.isPrimitive()) {
+                throw new IllegalArgumentException("Nested field not supported in flat schema: " + field.getName());
+            }
+            PrimitiveType primitive = field.asPrimitiveType();
+            PrimitiveTypeName type = primitive.getPrimitiveTypeName();
+            columns.add(new Column(field.getName(), i, type, readerFor(primitive), writerFor(type)));
+        }
+        return new ColumnWritePlan(schema, columns);
+    }
+
+    // Conversions follow JsonNode.asXxx() semantics so textual numbers and booleans
+    // are accepted the same way the tree-based path accepted them.
+    private static ValueReader readerFor(PrimitiveType primitive) {
+        PrimitiveTypeName type = primitive.getPrimitiveTypeName();
+        if (type == PrimitiveTypeName.INT64 && isTimestampMillis(primitive)) {
+            return (parser, record, index) -> record.setLong(index, Timestamps.readMillis(parser));
+        }
+        String name = primitive.getName();
+        return switch (type) {
+            case INT64 -> (parser, record, index) -> record.setLong(index, parser.getValueAsLong());
+            case INT32 -> (parser, record, index) -> record.setLong(index, parser.getValueAsInt());
+            case DOUBLE, FLOAT -> (parser, record, index) -> record.setDouble(index, parser.getValueAsDouble());
+            case BOOLEAN -> (parser, record, index) -> record.setBoolean(index, parser.getValueAsBoolean());
+            case BINARY -> (parser, record, index) -> record.setString(index, parser.getValueAsString());
+            default -> throw new IllegalArgumentException("Unsupported column type " + type + " for " + name);
+        };
+    }
+
+    private static boolean isTimestampMillis(PrimitiveType primitive) {
+        return primitive.getLogicalTypeAnnotation() instanceof TimestampLogicalTypeAnnotation timestamp
+                && timestamp.getUnit() == LogicalTypeAnnotation.TimeUnit.MILLIS;
+    }
+
+    private static ValueWriter writerFor(PrimitiveTypeName type) {
+        return switch (type) {
+            case INT64 -> (consumer, record, index) -> consumer.addLong(record.getLong(index));
+            case INT32 -> (consumer, record, index) -> consumer.addInteger((int) record.getLong(index));
+            case DOUBLE -> (consumer, record, index) -> consumer.addDouble(record.getDouble(index));
+            case FLOAT -> (consumer, record, index) -> consumer.addFloat((float) record.getDouble(index));
+            case BOOLEAN -> (consumer, record, index) -> consumer.addBoolean(record.getBoolean(index));
+            case BINARY -> (consumer, record, index) -> consumer.addBinary(Binary.fromString(record.getString(index)));
+            default -> throw new IllegalArgumentException("Unsupported column type " + type);
+        };
+    }
+
+    MessageType schema() {
+        return schema;
+    }
+
+    List<Column> columns() {
+        return columns;
+    }
+
+    Column[] columnArray() {
+        return columnArray;
+    }
+
+    Column column(String name) {
+        return columnsByName.get(name);
+    }
+
+    TelemetryRecord newRecord() {
+        return new TelemetryRecord(columnArray.length);
+    }
+}
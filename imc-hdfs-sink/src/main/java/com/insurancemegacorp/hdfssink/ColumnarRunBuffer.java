@@ -0,0 +1,212 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.parquet.hadoop.ParquetWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stages a run of records in primitive column arrays and writes it out ordered by
+ * (driver_id, event_time), so the min/max statistics of each row group cover a narrow
+ * slice of drivers and time.
+ *
+ * Every column gets one array sized to the run and allocated once, and the buffer outlives
+ * its writer through a {@link RunBufferPool}: {@code double[]} for
+ * the sensor readings, {@code int[]} and {@code long[]} for ids and timestamps, and
+ * dictionary codes for strings, which repeat heavily within a run (VINs, street names).
+ * Sorting permutes an {@code int[]} of row numbers instead of moving records, and rows
+ * are handed to the Parquet writer through a single reused {@link TelemetryRecord}.
+ * Records missing a sort field are ordered after those that have it.
+ */
+final class ColumnarRunBuffer {
+
+    private static final int DRIVER_ID = TelemetrySchema.PLAN.column("driver_id").fieldIndex();
+    private static final int EVENT_TIME = TelemetrySchema.PLAN.column("event_time").fieldIndex();
+
+    private final ColumnWritePlan.Column[] columns = TelemetrySchema.PLAN.columnArray();
+    private final int capacity;
+    private final long[][] longs;
+    private final int[][] ints;
+    private final double[][] doubles;
+    private final boolean[][] booleans;
+    private final int[][] stringCodes;
+    private final boolean[][] present;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private String[] dictionaryValues = new String[64];
+    private final int[] order;
+    private final int[] scratch;
+    private final TelemetryRecord row = TelemetrySchema.PLAN.newRecord();
+    private final long retainedBytes;
+    private int size;
+
+    ColumnarRunBuffer(int capacity) {
+        this.capacity = capacity;
+        int fields = columns.length;
+        this.longs = new long[fields][];
+        this.ints = new int[fields][];
+        this.doubles = new double[fields][];
+        this.booleans = new boolean[fields][];
+        this.stringCodes = new int[fields][];
+        this.present = new boolean[fields][];
+        long bytesPerRow = 8; // order and scratch
+        for (ColumnWritePlan.Column column : columns) {
+            int i = column.fieldIndex();
+            present[i] = new boolean[capacity];
+            switch (column.type()) {
+                case INT64 -> longs[i] = new long[capacity];
+                case INT32 -> ints[i] = new int[capacity];
+                case DOUBLE, FLOAT -> doubles[i] = new double[capacity];
+                case BOOLEAN -> booleans[i] = new boolean[capacity];
+                case BINARY -> stringCodes[i] = new int[capacity];
+                default -> throw new IllegalArgumentException("Unsupported column type " + column.type());
+            }
+            bytesPerRow += 1 + switch (column.type()) {
+                case INT64, DOUBLE, FLOAT -> 8;
+                case INT32, BINARY -> 4;
+                default -> 1;
+            };
+        }
+        this.order = new int[capacity];
+        this.scratch = new int[capacity];
+        this.retainedBytes = bytesPerRow * capacity;
+    }
+
+    /**
+     * Copies the record into the run and returns true once the run is full.
+     */
+    boolean add(TelemetryRecord record) {
+        int r = size;
+        for (ColumnWritePlan.Column column : columns) {
+            int i = column.fieldIndex();
+            boolean isPresent = record.isPresent(i);
+            present[i][r] = isPresent;
+            if (!isPresent) {
+                continue;
+            }
+            switch (column.type()) {
+                case INT64 -> longs[i][r] = record.getLong(i);
+                case INT32 -> ints[i][r] = (int) record.getLong(i);
+                case DOUBLE, FLOAT -> doubles[i][r] = record.getDouble(i);
+                case BOOLEAN -> booleans[i][r] = record.getBoolean(i);
+                case BINARY -> stringCodes[i][r] = encode(record.getString(i));
+                default -> throw new IllegalStateException("Unsupported column type " + column.type());
+            }
+        }
+        size++;
+        return size == capacity;
+    }
+
+    private int encode(String value) {
+        Integer code = dictionary.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            if (code == dictionaryValues.length) {
+                dictionaryValues = Arrays.copyOf(dictionaryValues, code * 2);
+            }
+            dictionaryValues[code] = value;
+            dictionary.put(value, code);
+        }
+        return code;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Heap held by the column arrays, which are allocated up front for the whole run;
+     * dictionary strings are not counted.
+     */
+    long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Sorts the staged run, writes it and empties the buffer.
+     */
+    void flushTo(ParquetWriter<TelemetryRecord> writer) throws IOException {
+        for (int r = 0; r < size; r++) {
+            order[r] = r;
+        }
+        mergeSort(0, size);
+        for (int k = 0; k < size; k++) {
+            load(order[k]);
+            writer.write(row);
+        }
+        clear();
+    }
+
+    /**
+     * Drops the staged rows without writing them, keeping the arrays for the next run.
+     */
+    void clear() {
+        size = 0;
+        Arrays.fill(dictionaryValues, 0, dictionary.size(), null);
+        dictionary.clear();
+    }
+
+    private void load(int r) {
+        row.clear();
+        for (ColumnWritePlan.Column column : columns) {
+            int i = column.fieldIndex();
+            if (!present[i][r]) {
+                continue;
+            }
+            switch (column.type()) {
+                case INT64 -> row.setLong(i, longs[i][r]);
+                case INT32 -> row.setLong(i, ints[i][r]);
+                case DOUBLE, FLOAT -> row.setDouble(i, doubles[i][r]);
+                case BOOLEAN -> row.setBoolean(i, booleans[i][r]);
+                case BINARY -> row.setString(i, dictionaryValues[stringCodes[i][r]]);
+                default -> throw new IllegalStateException("Unsupported column type " + column.type());
+            }
+        }
+    }
+
+    private int compare(int a, int b) {
+        int byDriver = compareIfPresent(DRIVER_ID, a, b);
+        if (byDriver != 0) {
+            return byDriver;
+        }
+        return compareIfPresent(EVENT_TIME, a, b);
+    }
+
+    private int compareIfPresent(int field, int a, int b) {
+        boolean aPresent = present[field][a];
+        boolean bPresent = present[field][b];
+        if (aPresent != bPresent) {
+            return aPresent ? -1 : 1;
+        }
+        if (!aPresent) {
+            return 0;
+        }
+        return longs[field] != null
+                ? Long.compare(longs[field][a], longs[field][b])
+                : Integer.compare(ints[field][a], ints[field][b]);
+    }
+
+    // Stable merge sort over row numbers; the run keeps arrival order within a key
+    private void mergeSort(int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (compare(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < mid && compare(scratch[left], scratch[right]) <= 0)) {
+                order[k] = scratch[left++];
+            } else {
+                order[k] = scratch[right++];
+            }
+        }
+    }
+}
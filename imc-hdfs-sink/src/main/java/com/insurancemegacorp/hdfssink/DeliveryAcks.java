@@ -0,0 +1,201 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Manual acknowledgements for the deliveries of one RabbitMQ channel.
+ *
+ * Writers settle deliveries out of order: each file holds its own subset of tags and is
+ * committed whenever it rolls. Tags are recorded here in delivery order and marked as
+ * they settle, and whenever the oldest outstanding tags have all settled they are acked
+ * with a single {@code basicAck(tag, multiple=true)}, so a whole file's worth of messages
+ * costs one frame.
+ *
+ * Deliveries that cannot be written are nacked individually and requeued. If the channel
+ * closes, the broker requeues everything unacked and the tags recorded here are dropped.
+ */
+final class DeliveryAcks {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryAcks.class);
+
+    private static final byte PENDING = 0;
+    private static final byte WRITTEN = 1;
+    private static final byte REQUEUED = 2;
+
+    private final Channel channel;
+    private final Counter ackedCounter;
+    private final Counter requeuedCounter;
+    private final Counter channelFailuresCounter;
+    // Outstanding tags in delivery order, as a ring starting at head
+    private long[] tags = new long[1024];
+    private byte[] states = new byte[1024];
+    private int head;
+    private int size;
+    private boolean closed;
+
+    DeliveryAcks(Channel channel, MeterRegistry meterRegistry) {
+        this.channel = channel;
+        this.ackedCounter = meterRegistry.counter("hdfs_messages_acked_total");
+        this.requeuedCounter = meterRegistry.counter("hdfs_messages_requeued_total");
+        this.channelFailuresCounter = meterRegistry.counter("hdfs_ack_channel_failures_total");
+    }
+
+    /**
+     * Tags a writer holds until its file is committed, in the order they were written.
+     */
+    static final class Held {
+        private long[] tags = new long[64];
+        private int size;
+
+        void add(long tag) {
+            if (size == tags.length) {
+                tags = Arrays.copyOf(tags, size * 2);
+            }
+            tags[size++] = tag;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Records deliveries before they are handed to the writers. Tags must be increasing,
+     * which the broker guarantees within a channel.
+     */
+    synchronized void received(long tag) {
+        if (closed) {
+            return;
+        }
+        if (size == tags.length) {
+            grow();
+        }
+        int slot = (head + size) % tags.length;
+        tags[slot] = tag;
+        states[slot] = PENDING;
+        size++;
+    }
+
+    /**
+     * The messages are safely in a committed file (or deliberately dropped).
+     */
+    synchronized void ack(Held held) {
+        for (int i = 0; i < held.size; i++) {
+            settle(held.tags[i], WRITTEN);
+        }
+        ackSettledPrefix();
+    }
+
+    synchronized void ack(long tag) {
+        settle(tag, WRITTEN);
+        ackSettledPrefix();
+    }
+
+    /**
+     * The messages never made it into a committed file; ask the broker to redeliver them.
+     */
+    synchronized void requeue(Held held) {
+        for (int i = 0; i < held.size; i++) {
+            requeue(held.tags[i]);
+        }
+    }
+
+    synchronized void requeue(long tag) {
+        if (closed || !settle(tag, REQUEUED)) {
+            return;
+        }
+        try {
+            channel.basicNack(tag, false, true);
+            requeuedCounter.increment();
+        } catch (Exception e) {
+            channelLost(e);
+            return;
+        }
+        ackSettledPrefix();
+    }
+
+    /**
+     * Deliveries received but not yet acked or requeued.
+     */
+    synchronized int outstanding() {
+        return size;
+    }
+
+    synchronized boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    private boolean settle(long tag, byte state) {
+        if (closed || size == 0) {
+            return false;
+        }
+        // The live ring is sorted, so search it as two sorted halves
+        int tail = head + size;
+        int index;
+        if (tail <= tags.length) {
+            index = Arrays.binarySearch(tags, head, tail, tag);
+        } else {
+            index = tag >= tags[head]
+                ? Arrays.binarySearch(tags, head, tags.length, tag)
+                : Arrays.binarySearch(tags, 0, tail - tags.length, tag);
+        }
+        if (index < 0 || states[index] != PENDING) {
+            return false;
+        }
+        states[index] = state;
+        return true;
+    }
+
+    private void ackSettledPrefix() {
+        if (closed) {
+            return;
+        }
+        int count = 0;
+        long last = -1;
+        while (size > 0 && states[head] != PENDING) {
+            if (states[head] == WRITTEN) {
+                last = tags[head];
+                count++;
+            }
+            head = (head + 1) % tags.length;
+            size--;
+        }
+        if (count == 0) {
+            return;
+        }
+        try {
+            // Requeued tags below it are no longer outstanding, so the broker skips them; the
+            // acked tag itself must still be outstanding, hence the last written one
+            channel.basicAck(last, true);
+            ackedCounter.increment(count);
+        } catch (Exception e) {
+            channelLost(e);
+        }
+    }
+
+    private void channelLost(Exception e) {
+        log.warn("Channel closed with {} unacknowledged deliveries; the broker redelivers them: {}", size, e.getMessage());
+        channelFailuresCounter.increment();
+        closed = true;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] grownTags = new long[tags.length * 2];
+        byte[] grownStates = new byte[tags.length * 2];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % tags.length;
+            grownTags[i] = tags[slot];
+            grownStates[i] = states[slot];
+        }
+        tags = grownTags;
+        states = grownStates;
+        head = 0;
+    }
+}
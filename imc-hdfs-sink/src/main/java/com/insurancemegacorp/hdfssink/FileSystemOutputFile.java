@@ -0,0 +1,59 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.util.HadoopStreams;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+import java.io.IOException;
+
+/**
+ * {@link OutputFile} created through a given {@link FileSystem} with a fixed replication.
+ * Parquet's own {@code HadoopOutputFile} resolves the file system from a configuration on
+ * every file, which goes through Hadoop's shared client cache and needs a configuration
+ * copy just to carry the replication factor.
+ */
+final class FileSystemOutputFile implements OutputFile {
+
+    private final FileSystem fs;
+    private final Path path;
+    private final short replication;
+
+    FileSystemOutputFile(FileSystem fs, Path path, short replication) {
+        this.fs = fs;
+        this.path = path;
+        this.replication = replication;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) throws IOException {
+        return open(false, blockSizeHint);
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+        return open(true, blockSizeHint);
+    }
+
+    private PositionOutputStream open(boolean overwrite, long blockSizeHint) throws IOException {
+        int bufferSize = fs.getConf().getInt("io.file.buffer.size", 4096);
+        long blockSize = Math.max(fs.getDefaultBlockSize(path), blockSizeHint);
+        return HadoopStreams.wrap(fs.create(path, overwrite, bufferSize, replication, blockSize));
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+        return true;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+        return fs.getDefaultBlockSize(path);
+    }
+
+    @Override
+    public String getPath() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.MessageType;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Encoding, compression and layout settings for the Parquet files written by the sink.
+ *
+ * Compression applies to the whole file because parquet-java writes every column chunk
+ * with the same codec; dictionary encoding and bloom filters can be set per column.
+ */
+@ConfigurationProperties("hdfs.parquet")
+public class HdfsParquetProperties {
+
+    static final String ZSTD_LEVEL_KEY = "parquet.compression.codec.zstd.level";
+
+    // A fleet-sized number of vehicles or drivers per row group, about 12 KB of filter at 1% fpp
+    static final long DEFAULT_BLOOM_FILTER_NDV = 10_000;
+
+    /**
+     * Compression codec for all columns (UNCOMPRESSED, SNAPPY, GZIP, ZSTD, LZ4_RAW).
+     */
+    private CompressionCodecName codec = CompressionCodecName.SNAPPY;
+
+    /**
+     * ZSTD compression level, 1 (fastest) to 22 (smallest). Only used with the ZSTD codec.
+     */
+    private int zstdLevel = 3;
+
+    /**
+     * Target size of a data page in bytes.
+     */
+    private int pageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+
+    /**
+     * Target size of a row group in bytes; also the amount of data buffered per open file.
+     */
+    private long rowGroupSize = ParquetWriter.DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Default dictionary encoding for columns without an explicit setting.
+     */
+    private boolean dictionaryEnabled = true;
+
+    /**
+     * Maximum dictionary page size in bytes before a column falls back to plain encoding.
+     */
+    private int dictionaryPageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+
+    /**
+     * Buffer records and write them sorted by (driver_id, event_time) so each row group
+     * has tight min/max statistics for per-driver and time-range filters.
+     */
+    private boolean sortByDriverAndTime = false;
+
+    /**
+     * Records per sorted run when {@code sort-by-driver-and-time} is on. Each open writer
+     * stages one run in column arrays, about 250 bytes per record plus distinct strings.
+     */
+    private int sortRunRecords = 10_000;
+
+    /**
+     * Per-column overrides keyed by column name, e.g. {@code hdfs.parquet.columns[driver_id].bloom-filter=true}.
+     * Names containing underscores must use the bracket notation. Settings a column leaves
+     * unset keep their defaults, so the bloom filters on vin, driver_id and vehicle_id stay
+     * unless {@code bloom-filter=false} turns them off.
+     */
+    private Map<String, Column> columns = defaultColumns();
+
+    public static class Column {
+
+        /**
+         * Dictionary encoding for this column; inherits {@code dictionary-enabled} when unset.
+         */
+        private Boolean dictionary;
+
+        /**
+         * Write a bloom filter so point lookups can skip row groups. Parquet only writes it
+         * for chunks that outgrow their dictionary, since a dictionary already answers the
+         * same question.
+         */
+        private Boolean bloomFilter;
+
+        /**
+         * Expected distinct values per row group, used to size the bloom filter; 0 sizes it
+         * for the writer maximum of 1 MB per column chunk.
+         */
+        private Long bloomFilterNdv;
+
+        /**
+         * These settings, with the ones left unset taken from {@code defaults}.
+         */
+        Column over(Column defaults) {
+            Column merged = new Column();
+            merged.dictionary = dictionary != null ? dictionary : defaults.dictionary;
+            merged.bloomFilter = bloomFilter != null ? bloomFilter : defaults.bloomFilter;
+            merged.bloomFilterNdv = bloomFilterNdv != null ? bloomFilterNdv : defaults.bloomFilterNdv;
+            return merged;
+        }
+
+        public Boolean getDictionary() {
+            return this.dictionary;
+        }
+
+        public void setDictionary(Boolean dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        public Boolean getBloomFilter() {
+            return this.bloomFilter;
+        }
+
+        public void setBloomFilter(Boolean bloomFilter) {
+            this.bloomFilter = bloomFilter;
+        }
+
+        public Long getBloomFilterNdv() {
+            return this.bloomFilterNdv;
+        }
+
+        public void setBloomFilterNdv(Long bloomFilterNdv) {
+            this.bloomFilterNdv = bloomFilterNdv;
+        }
+    }
+
+    private static Map<String, Column> defaultColumns() {
+        // Per-vehicle and per-driver lookups filter on these
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (String name : new String[] {"vin", "driver_id", "vehicle_id"}) {
+            Column column = new Column();
+            column.setBloomFilter(true);
+            column.setBloomFilterNdv(DEFAULT_BLOOM_FILTER_NDV);
+            columns.put(name, column);
+        }
+        return columns;
+    }
+
+    /**
+     * Fails fast on per-column settings that name a column the schema does not have.
+     */
+    void validate(MessageType schema) {
+        if (sortByDriverAndTime && sortRunRecords <= 0) {
+            throw new IllegalStateException("hdfs.parquet.sort-run-records must be positive when sorting is enabled");
+        }
+        for (String name : columns.keySet()) {
+            if (!schema.containsField(name)) {
+                throw new IllegalStateException("hdfs.parquet.columns." + name + " does not match a telemetry column");
+            }
+        }
+    }
+
+    /**
+     * A copy of {@code conf} carrying the settings Parquet reads from the Hadoop
+     * configuration, built once and shared by every writer.
+     */
+    Configuration writerConfiguration(Configuration conf) {
+        Configuration writerConf = new Configuration(conf);
+        writerConf.setInt(ZSTD_LEVEL_KEY, zstdLevel);
+        return writerConf;
+    }
+
+    /**
+     * Applies these settings to a writer builder, built with a configuration from
+     * {@link #writerConfiguration}.
+     */
+    <B extends ParquetWriter.Builder<?, B>> B applyTo(B builder, Configuration writerConf) {
+        builder.withCompressionCodec(codec)
+                .withPageSize(pageSize)
+                .withRowGroupSize(rowGroupSize)
+                .withDictionaryEncoding(dictionaryEnabled)
+                .withDictionaryPageSize(dictionaryPageSize);
+        columns.forEach((name, column) -> {
+            if (column.getDictionary() != null) {
+                builder.withDictionaryEncoding(name, column.getDictionary());
+            }
+            if (Boolean.TRUE.equals(column.getBloomFilter())) {
+                builder.withBloomFilterEnabled(name, true);
+                if (column.getBloomFilterNdv() != null && column.getBloomFilterNdv() > 0) {
+                    builder.withBloomFilterNDV(name, column.getBloomFilterNdv());
+                }
+            }
+        });
+        return builder.withConf(writerConf);
+    }
+
+    @Override
+    public String toString() {
+        return "codec=" + codec + (codec == CompressionCodecName.ZSTD ? "(" + zstdLevel + ")" : "")
+                + ", pageSize=" + pageSize + ", rowGroupSize=" + rowGroupSize
+                + ", dictionary=" + dictionaryEnabled + ", columns=" + columns.keySet()
+                + (sortByDriverAndTime ? ", sortRunRecords=" + sortRunRecords : "");
+    }
+
+    // Getters and setters
+    public CompressionCodecName getCodec() {
+        return this.codec;
+    }
+
+    public void setCodec(CompressionCodecName codec) {
+        this.codec = codec;
+    }
+
+    public int getZstdLevel() {
+        return this.zstdLevel;
+    }
+
+    public void setZstdLevel(int zstdLevel) {
+        this.zstdLevel = zstdLevel;
+    }
+
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public long getRowGroupSize() {
+        return this.rowGroupSize;
+    }
+
+    public void setRowGroupSize(long rowGroupSize) {
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    public boolean isDictionaryEnabled() {
+        return this.dictionaryEnabled;
+    }
+
+    public void setDictionaryEnabled(boolean dictionaryEnabled) {
+        this.dictionaryEnabled = dictionaryEnabled;
+    }
+
+    public int getDictionaryPageSize() {
+        return this.dictionaryPageSize;
+    }
+
+    public void setDictionaryPageSize(int dictionaryPageSize) {
+        this.dictionaryPageSize = dictionaryPageSize;
+    }
+
+    public boolean isSortByDriverAndTime() {
+        return this.sortByDriverAndTime;
+    }
+
+    public void setSortByDriverAndTime(boolean sortByDriverAndTime) {
+        this.sortByDriverAndTime = sortByDriverAndTime;
+    }
+
+    public int getSortRunRecords() {
+        return this.sortRunRecords;
+    }
+
+    public void setSortRunRecords(int sortRunRecords) {
+        this.sortRunRecords = sortRunRecords;
+    }
+
+    public Map<String, Column> getColumns() {
+        return this.columns;
+    }
+
+    public void setColumns(Map<String, Column> columns) {
+        Map<String, Column> merged = defaultColumns();
+        columns.forEach((name, column) -> merged.merge(name, column, (defaults, override) -> override.over(defaults)));
+        this.columns = merged;
+    }
+}
@@ -4,17 +4,20 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.parquet.hadoop.ParquetWriter;
-import org.apache.parquet.hadoop.metadata.CompressionCodecName;
-import org.apache.parquet.schema.MessageType;
-import org.apache.parquet.schema.MessageTypeParser;
-import org.apache.parquet.hadoop.example.GroupWriteSupport;
-import org.apache.parquet.example.data.Group;
-import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
+import org.springframework.messaging.Message;
+import com.rabbitmq.client.Channel;
 import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -22,25 +25,31 @@ import org.springframework.context.event.EventListener;
 import jakarta.annotation.PreDestroy;
 import jakarta.annotation.PostConstruct;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.IOException;
 import java.net.URI;
-import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Queue;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -48,25 +57,70 @@ import org.apache.hadoop.security.UserGroupInformation;
 public class HdfsSink implements Consumer<String> {
     private static final Logger log = LoggerFactory.getLogger(HdfsSink.class);
     
+    // basic.qos carries the prefetch count as an unsigned short
+    static final int MAX_PREFETCH = 65535;
+    private static final int EVENT_TIME = TelemetrySchema.PLAN.column("event_time").fieldIndex();
+    // Visibility latency the legacy hdfs.forceFlush maps to: the rolling check interval
+    private static final int FORCE_FLUSH_LATENCY_SECONDS = 60;
+    
     private final MeterRegistry meterRegistry;
+    // Per-message and per-batch meters, resolved once so the hot path skips the registry
+    private final Counter messagesReceivedCounter;
+    private final Counter queueFailuresCounter;
+    private final Counter queueBackpressureCounter;
+    private final Counter messagesWrittenCounter;
+    private final Counter writerFailuresCounter;
+    private final Counter invalidMessagesCounter;
+    private final Counter lateRecordsCounter;
+    private final Counter writeRetriesCounter;
+    private final DistributionSummary receivedBatchSize;
+    private final Timer messageProcessingTimer;
+    private final Timer batchMessageProcessingTimer;
+    private final Timer messageProcessingErrorTimer;
+    private final Timer batchProcessingTimer;
+    private final Timer batchProcessingErrorTimer;
     private final Configuration hadoopConf;
+    // Derived once from hadoopConf with the Parquet settings it carries, shared by all writers
+    private Configuration writerConf;
+    private ManagedFileSystem fileSystem;
+    private final HdfsParquetProperties parquetProperties;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final BlockingQueue<String> messageQueue = new LinkedBlockingQueue<>(); 
+    private PartitionPathTemplate partitionTemplate;
+    private TelemetryRecordParser recordParser;
+    private IngestQueue messageQueue;
     private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
     private final AtomicLong messagesReceived = new AtomicLong(0);
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    // Parallel writers: Map of writerId -> writer
-    private final Map<String, ParquetWriter<Group>> writers = new ConcurrentHashMap<>();
-    private final Map<String, String> writerFilePaths = new ConcurrentHashMap<>(); 
-    private final Map<String, Long> writerStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, Integer> writerMessageCounts = new ConcurrentHashMap<>();
-    
-    // Legacy single writer fields (for backward compatibility during migration)
-    private ParquetWriter<Group> currentWriter;
-    private String currentFilePath;
-    private long currentFileStartTime;
-    private int currentFileMessageCount = 0;
-    private String lastMessageForPartitioning = null;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+    // Dedicated writer threads, one per lane, draining the ingest queue continuously
+    private final Map<String, Thread> writerThreads = new ConcurrentHashMap<>();
+    // Lanes asked to finish their current batch, commit their files and exit
+    private final java.util.Set<String> retiringLanes = ConcurrentHashMap.newKeySet();
+    // Per-lane buffered bytes gauges, removed when their lane retires
+    private final Map<String, Gauge> laneGauges = new ConcurrentHashMap<>();
+    private WriterLaneController laneController;
+    private final AtomicLong laneBusyNanos = new AtomicLong();
+    private volatile double laneUtilization;
+    private long lastLaneEvaluationNanos;
+    // Closes rolled writers and renames them to their committed names off the ingest path
+    private ThreadPoolExecutor commitExecutor;
+    private SmallFileCompactor compactor;
+    private final PartitionManifest manifest;
+    // Open partition writers shared by all lanes, one per partition
+    private WriterPool writerPool;
+    private WriterMemoryBudget memoryBudget;
+    private WriteCircuitBreaker writeCircuit;
+    private volatile RollEvent lastRoll;
+    private volatile long lastCommitMillis;
+    private WriteAheadSpool spool;
+    private LocalStaging staging;
+    private ThreadPoolExecutor uploadExecutor;
+    private WriteCircuitBreaker uploadCircuit;
+    // Sealed files whose upload failed or was held back, retried by retryStagedUploads
+    private final Queue<StagedUpload> pendingUploads = new ConcurrentLinkedQueue<>();
+    // Highest event time seen, for the event-time watermark
+    private final AtomicLong maxEventTime = new AtomicLong(Long.MIN_VALUE);
+    // Manual-ack mode: outstanding deliveries per consumer channel
+    private final Map<Channel, DeliveryAcks> channelAcks = new ConcurrentHashMap<>();
 
     @Value("${hdfs.namenodeUri:hdfs://namenode:8020}")
     private String namenodeUri;
@@ -83,6 +137,21 @@ public class HdfsSink implements Consumer<String> {
     @Value("${hdfs.client.retryInterval:5000}")
     private int retryInterval;
     
+    @Value("${hdfs.client.healthCheckSeconds:30}")
+    private int healthCheckSeconds;
+    
+    @Value("${hdfs.client.healthCheckFailures:3}")
+    private int healthCheckFailures;
+    
+    @Value("${hdfs.retry.initialBackoffMs:500}")
+    private long retryInitialBackoffMs;
+    
+    @Value("${hdfs.retry.maxBackoffMs:60000}")
+    private long retryMaxBackoffMs;
+    
+    @Value("${hdfs.retry.circuitFailureThreshold:3}")
+    private int circuitFailureThreshold;
+    
     @Value("${hdfs.file.maxSizeMB:30}")
     private double maxFileSizeMB;
     
@@ -92,15 +161,39 @@ public class HdfsSink implements Consumer<String> {
     @Value("${hdfs.file.maxMessages:24000}")
     private int maxMessagesPerFile;
     
-    @Value("${hdfs.file.minMessages:50}")
-    private int minMessagesPerFile;
-    
     @Value("${hdfs.batch.size:500}")
     private int batchSize;
     
     @Value("${hdfs.batch.timeoutSeconds:30}")
     private int batchTimeoutSeconds;
     
+    @Value("${hdfs.queue.maxMessages:20000}")
+    private int queueMaxMessages;
+    
+    @Value("${hdfs.queue.maxSizeMB:64}")
+    private int queueMaxSizeMB;
+    
+    @Value("${hdfs.spool.enabled:false}")
+    private boolean spoolEnabled;
+    
+    @Value("${hdfs.spool.directory:${java.io.tmpdir}/imc-hdfs-sink-spool}")
+    private String spoolDirectory;
+    
+    @Value("${hdfs.spool.segmentSizeMB:64}")
+    private int spoolSegmentSizeMB;
+    
+    @Value("${hdfs.spool.forceWrites:false}")
+    private boolean spoolForceWrites;
+    
+    @Value("${hdfs.staging.enabled:false}")
+    private boolean stagingEnabled;
+    
+    @Value("${hdfs.staging.directory:${java.io.tmpdir}/imc-hdfs-sink-staging}")
+    private String stagingDirectory;
+    
+    @Value("${hdfs.staging.uploadThreads:2}")
+    private int stagingUploadThreads;
+    
     @Value("${hdfs.kerberos.enabled:false}")
     private boolean kerberosEnabled;
     
@@ -116,23 +209,310 @@ public class HdfsSink implements Consumer<String> {
     @Value("${hdfs.partitionPath:}")
     private String partitionPathTemplate;
     
+    @Value("${hdfs.partition.byEventTime:false}")
+    private boolean partitionByEventTime;
+    
+    @Value("${hdfs.partition.allowedLatenessMinutes:60}")
+    private int allowedLatenessMinutes;
+    
     @Value("${hdfs.replicationFactor:3}")
     private short replicationFactor;
     
     @Value("${hdfs.forceFlush:false}")
     private boolean forceFlush;
     
+    @Value("${hdfs.visibility.latencySeconds:0}")
+    private int visibilityLatencySeconds;
+    
     @Value("${hdfs.writers.count:3}")
     private int writersCount;
     
-    public HdfsSink(MeterRegistry meterRegistry) {
+    @Value("${hdfs.writers.min:${hdfs.writers.count:3}}")
+    private int writersMin;
+    
+    @Value("${hdfs.writers.max:${hdfs.writers.count:3}}")
+    private int writersMax;
+    
+    @Value("${hdfs.writers.scaleIntervalSeconds:15}")
+    private int writersScaleIntervalSeconds;
+    
+    @Value("${hdfs.writers.scaleSustainedIntervals:4}")
+    private int writersScaleSustainedIntervals;
+    
+    @Value("${hdfs.writers.maxOpen:64}")
+    private int maxOpenWriters;
+    
+    @Value("${hdfs.writers.idleTimeoutSeconds:300}")
+    private int writerIdleTimeoutSeconds;
+    
+    @Value("${hdfs.memory.budgetMB:0}")
+    private double memoryBudgetMB;
+    
+    @Value("${hdfs.commit.threads:2}")
+    private int commitThreads;
+    
+    @Value("${hdfs.commit.maxPending:32}")
+    private int commitMaxPending;
+    
+    @Value("${hdfs.compaction.enabled:true}")
+    private boolean compactionEnabled;
+    
+    @Value("${hdfs.compaction.smallFileMB:8}")
+    private double compactionSmallFileMB;
+    
+    @Value("${hdfs.compaction.minFiles:2}")
+    private int compactionMinFiles;
+    
+    @Value("${hdfs.compaction.intervalSeconds:300}")
+    private int compactionIntervalSeconds;
+    
+    @Value("${hdfs.manifest.enabled:true}")
+    private boolean manifestEnabled;
+    
+    @Value("${hdfs.manifest.flushSeconds:30}")
+    private int manifestFlushSeconds;
+    
+    @Value("${hdfs.ack.prefetch:0}")
+    private int ackPrefetch;
+    
+    public HdfsSink(MeterRegistry meterRegistry, HdfsParquetProperties parquetProperties) {
         this.meterRegistry = meterRegistry;
-        this.hadoopConf = new Configuration(); // Initialize empty, will be configured in @PostConstruct
+        this.messagesReceivedCounter = meterRegistry.counter("hdfs_messages_received_total");
+        this.queueFailuresCounter = meterRegistry.counter("hdfs_message_queue_failures_total");
+        this.queueBackpressureCounter = meterRegistry.counter("hdfs_queue_backpressure_total");
+        this.messagesWrittenCounter = meterRegistry.counter("hdfs_messages_written_total");
+        this.writerFailuresCounter = meterRegistry.counter("hdfs_writer_failures_total");
+        this.invalidMessagesCounter = meterRegistry.counter("hdfs_invalid_messages_total");
+        this.lateRecordsCounter = meterRegistry.counter("hdfs_late_records_total");
+        this.writeRetriesCounter = meterRegistry.counter("hdfs_write_retries_total");
+        this.receivedBatchSize = meterRegistry.summary("hdfs_received_batch_size");
+        this.messageProcessingTimer = Timer.builder("hdfs_message_processing_duration")
+            .description("Time taken to queue message for HDFS processing")
+            .register(meterRegistry);
+        this.batchMessageProcessingTimer = Timer.builder("hdfs_message_processing_duration")
+            .description("Time taken to queue message for HDFS processing")
+            .tag("mode", "batch")
+            .register(meterRegistry);
+        this.messageProcessingErrorTimer = Timer.builder("hdfs_message_processing_duration")
+            .tag("status", "error")
+            .register(meterRegistry);
+        this.batchProcessingTimer = Timer.builder("hdfs_batch_processing_duration")
+            .description("Time taken to write batch to HDFS")
+            .register(meterRegistry);
+        this.batchProcessingErrorTimer = Timer.builder("hdfs_batch_processing_duration")
+            .tag("status", "error")
+            .register(meterRegistry);
+        this.parquetProperties = parquetProperties;
+        this.hadoopConf = new Configuration(); // Initialize empty, will be configured in initialize()
+        this.manifest = new PartitionManifest(meterRegistry, getInstanceId());
     }
 
+    /**
+     * Builds the sink's components in dependency order: the Hadoop client first, since
+     * staging and compaction write through it, and the Parquet settings are checked before
+     * anything is opened so a bad setting fails the start without leaving files behind.
+     */
     @PostConstruct
-    public void initializeHadoopConfiguration() {
+    public void initialize() {
+        initializeHadoopConfiguration();
+        initializeParquetSettings();
+        initializeIngestQueue();
+        initializePartitioning();
+        initializeWriterPools();
+        initializeCommitExecutor();
+        initializeStaging();
+        initializeCompactor();
+    }
+
+    private void initializeHadoopConfiguration() {
         configureHadoop(this.hadoopConf);
+        this.writerConf = parquetProperties.writerConfiguration(hadoopConf);
+        this.fileSystem = new ManagedFileSystem(URI.create(namenodeUri), hadoopConf, healthCheckFailures, meterRegistry);
+    }
+
+    private void initializeIngestQueue() {
+        this.messageQueue = new IngestQueue(queueMaxMessages, queueMaxSizeMB * 1024L * 1024L);
+        Gauge.builder("hdfs_queue_depth", messageQueue, IngestQueue::size)
+            .description("Messages buffered in memory awaiting an HDFS writer")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_queue_bytes", messageQueue, IngestQueue::bytes)
+            .description("Estimated heap bytes held by buffered messages")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_unacked_messages", this, HdfsSink::unackedMessages)
+            .description("Deliveries held unacknowledged until their file is committed (manual-ack mode)")
+            .register(meterRegistry);
+        log.info("Ingest queue bounded to {} messages / {} MB", queueMaxMessages, queueMaxSizeMB);
+        
+        if (spoolEnabled) {
+            initializeSpool();
+        }
+    }
+    
+    private void initializeSpool() {
+        try {
+            spool = new WriteAheadSpool(Paths.get(spoolDirectory), spoolSegmentSizeMB * 1024 * 1024, spoolForceWrites);
+            List<SinkMessage> recovered = spool.recover();
+            if (!recovered.isEmpty()) {
+                log.info("Replaying {} messages from write-ahead spool {}", recovered.size(), spoolDirectory);
+                messageQueue.requeueFirst(recovered);
+                meterRegistry.counter("hdfs_spool_replayed_total").increment(recovered.size());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open write-ahead spool at " + spoolDirectory, e);
+        }
+        Gauge.builder("hdfs_spool_segments", spool, WriteAheadSpool::segmentCount)
+            .description("Write-ahead spool segments still holding uncommitted messages")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_spool_pending_messages", spool, WriteAheadSpool::pendingMessages)
+            .description("Spooled messages not yet in a closed Parquet file")
+            .register(meterRegistry);
+        log.info("Write-ahead spool enabled at {}", spoolDirectory);
+    }
+
+    private void initializeParquetSettings() {
+        parquetProperties.validate(TelemetrySchema.SCHEMA);
+        log.info("Parquet writer settings: {}", parquetProperties);
+    }
+
+    private void initializePartitioning() {
+        partitionTemplate = PartitionPathTemplate.compile(partitionPathTemplate, partitionByEventTime);
+        recordParser = new TelemetryRecordParser(objectMapper.getFactory(), TelemetrySchema.PLAN, partitionTemplate.fieldNames());
+        log.info("Compiled partition path template: {}", partitionTemplate);
+        if (partitionByEventTime) {
+            Gauge.builder("hdfs_event_time_watermark", this, sink -> Math.max(0, sink.eventTimeWatermark()))
+                .description("Event time (epoch millis) before which partitions are considered complete")
+                .register(meterRegistry);
+            log.info("Partitions are dated by event time; a day closes {} minutes after the newest event passes its end",
+                allowedLatenessMinutes);
+        }
+    }
+
+    private void initializeWriterPools() {
+        laneController = new WriterLaneController(writersMin, writersMax, batchSize, writersScaleSustainedIntervals);
+        // Without a configured budget, open writers may hold a quarter of the heap
+        long budgetBytes = memoryBudgetMB > 0 ? (long) (memoryBudgetMB * 1024 * 1024) : Runtime.getRuntime().maxMemory() / 4;
+        memoryBudget = new WriterMemoryBudget(budgetBytes);
+        Gauge.builder("hdfs_buffered_bytes", memoryBudget, WriterMemoryBudget::bufferedBytes)
+            .description("Heap held by open Parquet writers: unwritten row groups and sort runs")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_buffered_bytes_budget", memoryBudget, WriterMemoryBudget::budgetBytes)
+            .description("Heap open writers may hold before the largest is rolled")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        writeCircuit = new WriteCircuitBreaker(circuitFailureThreshold, retryInitialBackoffMs, retryMaxBackoffMs);
+        Gauge.builder("hdfs_write_circuit_state", writeCircuit, circuit -> circuit.state().code())
+            .description("HDFS write circuit: 0 closed, 1 half-open (probing), 2 open (writes paused)")
+            .register(meterRegistry);
+        FunctionCounter.builder("hdfs_write_circuit_opened_total", writeCircuit, WriteCircuitBreaker::openedCount)
+            .description("Times repeated write failures paused all writer lanes")
+            .register(meterRegistry);
+        writersCount = Math.max(writersMin, Math.min(writersMax, writersCount));
+        // Lanes take batches from one queue without partition affinity, so they share one pool:
+        // a partition has a single open file whichever lane writes to it, and
+        // hdfs.writers.maxOpen bounds the open files of the sink however many lanes run
+        RunBufferPool runBuffers = parquetProperties.isSortByDriverAndTime()
+            ? new RunBufferPool(parquetProperties.getSortRunRecords())
+            : null;
+        writerPool = new WriterPool(Math.max(1, maxOpenWriters), runBuffers);
+        Gauge.builder("hdfs_open_writers", writerPool, WriterPool::size)
+            .description("Parquet files currently open for writing")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_writer_lanes", this, sink -> sink.activeLaneCount())
+            .description("Writer lanes currently draining the ingest queue")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_writer_lane_utilization", this, sink -> sink.laneUtilization)
+            .description("Share of the last scaling interval the writer lanes spent writing batches")
+            .register(meterRegistry);
+        log.info("Configured {} writer lanes (min {}, max {}) sharing up to {} open partition writers and {} MB of buffers",
+            writersCount, writersMin, writersMax, writerPool.capacity(), budgetBytes / (1024 * 1024));
+    }
+
+    /**
+     * Prefetch for a manually acked consumer. Deliveries stay unacked until their file is
+     * committed, so unless {@code hdfs.ack.prefetch} is set the window covers a full file
+     * per lane plus a full ingest queue; anything smaller would stall the consumer before
+     * a file ever reached its message limit.
+     */
+    public int manualAckPrefetch() {
+        if (ackPrefetch > 0) {
+            return Math.min(ackPrefetch, MAX_PREFETCH);
+        }
+        long window = (long) writersMax * maxMessagesPerFile + queueMaxMessages;
+        return (int) Math.min(MAX_PREFETCH, Math.max(batchSize, window));
+    }
+
+    private void initializeCommitExecutor() {
+        // When the backlog is full the rolling lane commits inline, which bounds the number
+        // of closed-but-uncommitted writers held in memory
+        commitExecutor = new ThreadPoolExecutor(commitThreads, commitThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(commitMaxPending),
+            Thread.ofPlatform().name("hdfs-commit-", 0).daemon(true).factory(),
+            (task, executor) -> task.run());
+        Gauge.builder("hdfs_commits_pending", this, HdfsSink::pendingCommits)
+            .description("Rolled files waiting to be closed and committed")
+            .register(meterRegistry);
+        log.info("File commits run on {} background threads with up to {} pending", commitThreads, commitMaxPending);
+    }
+    
+    /**
+     * A sealed local file and, unless it was recovered after a restart, the writer whose
+     * messages are released once it is published.
+     */
+    private record StagedUpload(String filePath, PartitionWriter writer) {
+    }
+    
+    private void initializeStaging() {
+        if (!stagingEnabled) {
+            return;
+        }
+        List<String> recovered;
+        try {
+            staging = new LocalStaging(hadoopConf, stagingDirectory, outputPath);
+            recovered = staging.recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open staging directory " + stagingDirectory, e);
+        }
+        uploadExecutor = new ThreadPoolExecutor(stagingUploadThreads, stagingUploadThreads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            Thread.ofPlatform().name("hdfs-upload-", 0).daemon(true).factory());
+        // Uploads back off on their own; the lanes keep writing to local disk meanwhile
+        uploadCircuit = new WriteCircuitBreaker(circuitFailureThreshold, retryInitialBackoffMs, retryMaxBackoffMs);
+        Gauge.builder("hdfs_staged_files_pending", this, HdfsSink::stagedFilesPending)
+            .description("Closed files on local disk waiting to be uploaded to HDFS")
+            .register(meterRegistry);
+        Gauge.builder("hdfs_upload_circuit_state", uploadCircuit, circuit -> circuit.state().code())
+            .description("HDFS upload circuit: 0 closed, 1 half-open (probing), 2 open (uploads paused)")
+            .register(meterRegistry);
+        recovered.forEach(filePath -> pendingUploads.add(new StagedUpload(filePath, null)));
+        log.info("Files are staged in {} and uploaded to HDFS by {} threads; {} staged files recovered",
+            stagingDirectory, stagingUploadThreads, recovered.size());
+    }
+    
+    private void initializeCompactor() {
+        if (!compactionEnabled) {
+            log.info("Small file compaction disabled; files below {} MB are kept as written", compactionSmallFileMB);
+            return;
+        }
+        compactor = new SmallFileCompactor(fileSystem, replicationFactor, meterRegistry, getInstanceId(),
+            (long) (compactionSmallFileMB * 1024 * 1024), (long) (maxFileSizeMB * 1024 * 1024), compactionMinFiles,
+            manifestEnabled ? manifest : null);
+        Gauge.builder("hdfs_compaction_pending_partitions", compactor, SmallFileCompactor::pendingPartitions)
+            .description("Partitions with small files waiting to be compacted")
+            .register(meterRegistry);
+        log.info("Small files (< {} MB) are compacted every {}s", compactionSmallFileMB, compactionIntervalSeconds);
+    }
+    
+    /**
+     * A..Z, then AA, AB and so on, like spreadsheet columns.
+     */
+    static String writerIdFor(int index) {
+        StringBuilder id = new StringBuilder();
+        for (int n = index + 1; n > 0; n = (n - 1) / 26) {
+            id.append((char) ('A' + (n - 1) % 26));
+        }
+        return "writer-" + id.reverse();
     }
 
     private void configureHadoop(Configuration conf) {
@@ -165,16 +545,18 @@ public class HdfsSink implements Consumer<String> {
     @EventListener(ApplicationReadyEvent.class)
     public void validateHdfsConnection() {
         try {
-            FileSystem fs = FileSystem.get(URI.create(namenodeUri), hadoopConf);
+            // Kept open: this client is reused by every writer until the sink shuts down
+            FileSystem fs = fileSystem.get();
             Path testPath = new Path(outputPath);
             
+            countNamenodeRpc("exists");
             if (!fs.exists(testPath)) {
                 log.info("Creating HDFS output directory: {}", outputPath);
+                countNamenodeRpc("mkdirs");
                 fs.mkdirs(testPath);
             }
             
             log.info("HDFS connection validated successfully to: {}", namenodeUri);
-            fs.close();
             
             startBatchProcessor();
             
@@ -188,657 +570,971 @@ public class HdfsSink implements Consumer<String> {
         }
     }
     
-    private void startBatchProcessor() {
-        scheduler.scheduleAtFixedRate(this::processBatch, 0, batchTimeoutSeconds, TimeUnit.SECONDS);
+    private synchronized void startBatchProcessor() {
+        if (!writerThreads.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < writersCount; i++) {
+            startWriterLane(writerIdFor(i));
+        }
         scheduler.scheduleAtFixedRate(this::checkFileRolling, 0, 1, TimeUnit.MINUTES);
+        if (staging != null) {
+            long retryMillis = Math.min(1000, Math.max(50, retryInitialBackoffMs));
+            scheduler.scheduleWithFixedDelay(this::retryStagedUploads, 0, retryMillis, TimeUnit.MILLISECONDS);
+        }
+        if (healthCheckSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(fileSystem::checkHealth, healthCheckSeconds, healthCheckSeconds, TimeUnit.SECONDS);
+        }
+        if (manifestEnabled) {
+            long flushSeconds = Math.max(1, manifestFlushSeconds);
+            scheduler.scheduleWithFixedDelay(this::flushManifests, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+        }
+        if (compactor != null) {
+            scheduler.scheduleWithFixedDelay(compactor::compactPending, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        }
+        if (forceFlush && visibilityLatencySeconds <= 0) {
+            log.warn("hdfs.forceFlush is replaced by hdfs.visibility.latencySeconds; committing files every {}s. "
+                    + "Set hdfs.visibility.latencySeconds for a different latency", FORCE_FLUSH_LATENCY_SECONDS);
+            visibilityLatencySeconds = FORCE_FLUSH_LATENCY_SECONDS;
+        }
+        if (visibilityLatencySeconds > 0) {
+            long periodMillis = Math.max(200, TimeUnit.SECONDS.toMillis(visibilityLatencySeconds) / 4);
+            scheduler.scheduleAtFixedRate(this::commitForVisibility, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            log.info("Files are committed within about {}s of their first record for visibility", visibilityLatencySeconds);
+        }
+        if (laneController.isAdaptive()) {
+            lastLaneEvaluationNanos = System.nanoTime();
+            scheduler.scheduleAtFixedRate(this::adjustWriterLanes, writersScaleIntervalSeconds, writersScaleIntervalSeconds, TimeUnit.SECONDS);
+        }
+        log.info("Started {} writer threads (batch size {}, max latency {}s)", writersCount, batchSize, batchTimeoutSeconds);
     }
     
     // Implement Consumer<String> interface: accept inbound messages
     @Override
     public void accept(String jsonMessage) {
-        Timer.Sample sample = Timer.start(meterRegistry);
+        long started = System.nanoTime();
         try {
-            messageQueue.offer(jsonMessage);
+            enqueue(jsonMessage.getBytes(StandardCharsets.UTF_8));
             messagesReceived.incrementAndGet();
-            meterRegistry.counter("hdfs_messages_received_total").increment();
-            sample.stop(Timer.builder("hdfs_message_processing_duration")
-                .description("Time taken to queue message for HDFS processing")
-                .register(meterRegistry));
+            messagesReceivedCounter.increment();
+            messageProcessingTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             log.error("Failed to queue message for HDFS processing", e);
-            meterRegistry.counter("hdfs_message_queue_failures_total").increment();
-            sample.stop(Timer.builder("hdfs_message_processing_duration")
-                .tag("status", "error")
-                .register(meterRegistry));
+            queueFailuresCounter.increment();
+            messageProcessingErrorTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            // Propagate so the binder redelivers or dead-letters instead of acking a dropped message
+            throw new IllegalStateException("Failed to queue message for HDFS processing", e);
         }
     }
     
-    private void processBatch() {
-        if (shutdownRequested.get() || messageQueue.isEmpty()) {
-            return;
+    /**
+     * Batch-mode entry point: takes a whole broker batch of raw UTF-8 payloads, spools it
+     * with a single sync and queues it under one lock, and never decodes a payload to a
+     * String. Bound as {@code writeToHdfsBatch} with the binder's batch mode enabled.
+     *
+     * If the batch cannot be queued completely the whole batch fails and is redelivered,
+     * so messages queued before the failure may be written twice.
+     *
+     * With {@code acknowledge-mode: MANUAL} on the binding, the binder passes the channel
+     * along and every message is acked only once the file it was written to has been
+     * committed. Messages that cannot be queued are then nacked and requeued individually
+     * instead of failing the batch. Manually acked messages skip the write-ahead spool: the
+     * broker keeps them until they are acked and is the only source of their redelivery,
+     * so a crash does not bring them back twice.
+     */
+    public void acceptBatch(Message<List<byte[]>> batch) {
+        List<byte[]> payloads = batch.getPayload();
+        DeliveryAcks acks = deliveryAcksFor(batch);
+        long[] tags = acks != null ? deliveryTags(batch, payloads.size()) : null;
+        long started = System.nanoTime();
+        try {
+            enqueueAll(payloads, acks, tags);
+            messagesReceived.addAndGet(payloads.size());
+            messagesReceivedCounter.increment(payloads.size());
+            receivedBatchSize.record(payloads.size());
+            batchMessageProcessingTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Failed to queue batch of {} messages for HDFS processing", payloads.size(), e);
+            queueFailuresCounter.increment();
+            messageProcessingErrorTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            if (acks == null) {
+                throw new IllegalStateException("Failed to queue batch for HDFS processing", e);
+            }
         }
-        
-        List<String> batch = new ArrayList<>();
-        messageQueue.drainTo(batch, batchSize);
-        
-        if (batch.isEmpty()) {
-            return;
+    }
+
+    /**
+     * Ack tracker for the channel a batch arrived on, or null when the binder acks itself;
+     * the channel header is only present with manual acknowledgement.
+     */
+    private DeliveryAcks deliveryAcksFor(Message<?> message) {
+        Object channel = message.getHeaders().get(AmqpHeaders.CHANNEL);
+        if (!(channel instanceof Channel amqpChannel)) {
+            return null;
         }
-        
-        Timer.Sample sample = Timer.start(meterRegistry);
+        return channelAcks.computeIfAbsent(amqpChannel, c -> new DeliveryAcks(c, meterRegistry));
+    }
+
+    private static long[] deliveryTags(Message<?> batch, int size) {
+        Object batchedHeaders = batch.getHeaders().get(AmqpInboundChannelAdapter.CONSOLIDATED_HEADERS);
+        if (!(batchedHeaders instanceof List<?> headers) || headers.size() != size) {
+            throw new IllegalStateException("Manual acknowledgement needs per-message headers with the delivery tags");
+        }
+        long[] tags = new long[size];
+        for (int i = 0; i < size; i++) {
+            Object tag = headers.get(i) instanceof Map<?, ?> messageHeaders ? messageHeaders.get(AmqpHeaders.DELIVERY_TAG) : null;
+            if (!(tag instanceof Long deliveryTag)) {
+                throw new IllegalStateException("Message " + i + " of the batch has no delivery tag");
+            }
+            tags[i] = deliveryTag;
+        }
+        return tags;
+    }
+
+    private void enqueue(byte[] jsonMessage) throws IOException, InterruptedException {
+        // Spool first so the message survives a crash once the binder acks it
+        SinkMessage message = spool != null
+            ? new SinkMessage(jsonMessage, spool.append(jsonMessage))
+            : SinkMessage.unspooled(jsonMessage);
         
         try {
-            // Distribute messages to writers using round-robin
-            Map<String, List<String>> writerBatches = distributeMessagesRoundRobin(batch);
+            if (messageQueue.offer(message, 0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
             
-            // Process all writers in parallel
-            writerBatches.entrySet().parallelStream().forEach(entry -> {
-                String writerId = entry.getKey();
-                List<String> messages = entry.getValue();
-                
-                try {
-                    processWriterBatch(writerId, messages);
-                } catch (Exception e) {
-                    log.error("Failed to process batch for writer {}", writerId, e);
-                    meterRegistry.counter("hdfs_writer_failures_total").increment();
+            // Budget exhausted: hold the binder thread so unacked prefetch throttles the broker
+            queueBackpressureCounter.increment();
+            while (!messageQueue.offer(message, 1, TimeUnit.SECONDS)) {
+                if (shutdownRequested.get()) {
+                    throw new IllegalStateException("HDFS sink is shutting down");
                 }
-            });
-            
-            log.debug("Processed batch of {} messages across {} writers", batch.size(), writerBatches.size());
-            meterRegistry.counter("hdfs_messages_written_total").increment(batch.size());
-            sample.stop(Timer.builder("hdfs_batch_processing_duration")
-                .description("Time taken to write batch to HDFS")
-                .register(meterRegistry));
-                
-        } catch (Exception e) {
-            log.error("Failed to process batch to HDFS", e);
-            messageQueue.addAll(batch);
-            meterRegistry.counter("hdfs_batch_failures_total").increment();
-            sample.stop(Timer.builder("hdfs_batch_processing_duration")
-                .tag("status", "error")
-                .register(meterRegistry));
+            }
+        } catch (RuntimeException | InterruptedException e) {
+            // Not acked, so the broker redelivers it; don't replay it from the spool as well
+            releaseSpooled(message);
+            throw e;
         }
     }
     
-    private Map<String, List<String>> distributeMessagesRoundRobin(List<String> batch) {
-        Map<String, List<String>> writerBatches = new HashMap<>();
-        
-        // Initialize writer batches
-        for (int i = 0; i < writersCount; i++) {
-            String writerId = "writer-" + (char)('A' + i); // A, B, C
-            writerBatches.put(writerId, new ArrayList<>());
+    private void enqueueAll(List<byte[]> payloads, DeliveryAcks acks, long[] tags) throws IOException, InterruptedException {
+        List<SinkMessage> messages = new ArrayList<>(payloads.size());
+        if (acks != null) {
+            // Recorded before any writer can commit the messages
+            for (long tag : tags) {
+                acks.received(tag);
+            }
         }
-        
-        // Distribute messages round-robin
-        for (int i = 0; i < batch.size(); i++) {
-            String writerId = "writer-" + (char)('A' + (i % writersCount));
-            writerBatches.get(writerId).add(batch.get(i));
+        long[] segments = spool != null && acks == null ? spool.appendAll(payloads) : null;
+        for (int i = 0; i < payloads.size(); i++) {
+            long segment = segments != null ? segments[i] : WriteAheadSpool.NO_SEGMENT;
+            messages.add(acks != null
+                ? new SinkMessage(payloads.get(i), segment, acks, tags[i])
+                : new SinkMessage(payloads.get(i), segment));
         }
         
-        // Remove empty batches
-        writerBatches.entrySet().removeIf(entry -> entry.getValue().isEmpty());
-        
-        log.debug("Distributed {} messages across {} writers: {}", 
-                batch.size(), writerBatches.size(), 
-                writerBatches.entrySet().stream()
-                    .collect(java.util.stream.Collectors.toMap(
-                        Map.Entry::getKey, 
-                        e -> e.getValue().size())));
-        
-        return writerBatches;
+        int queued = 0;
+        try {
+            queued = messageQueue.offerAll(messages, 0, 0, TimeUnit.MILLISECONDS);
+            if (queued < messages.size()) {
+                queueBackpressureCounter.increment();
+            }
+            while (queued < messages.size()) {
+                if (shutdownRequested.get()) {
+                    throw new IllegalStateException("HDFS sink is shutting down");
+                }
+                queued += messageQueue.offerAll(messages, queued, 1, TimeUnit.SECONDS);
+            }
+        } catch (RuntimeException | InterruptedException e) {
+            // The unqueued rest is redelivered; don't replay it from the spool as well
+            for (SinkMessage message : messages.subList(queued, messages.size())) {
+                releaseSpooled(message);
+                if (message.acks() != null) {
+                    message.acks().requeue(message.deliveryTag());
+                }
+            }
+            throw e;
+        }
     }
-    
-    private void processWriterBatch(String writerId, List<String> messages) throws IOException {
-        if (messages.isEmpty()) {
-            return;
+
+    private void releaseSpooled(SinkMessage message) {
+        if (spool != null) {
+            spool.release(message.spoolSegment(), 1);
         }
-        
-        ParquetWriter<Group> writer = getOrCreateWriter(writerId);
-        
-        for (String message : messages) {
-            writeMessageToWriter(writer, message, writerId);
+    }
+
+    // A message that will never be written: release its spooled copy and ack it
+    private void discard(SinkMessage message) {
+        releaseSpooled(message);
+        if (message.acks() != null) {
+            message.acks().ack(message.deliveryTag());
         }
-        
-        // Update message count for this writer
-        writerMessageCounts.merge(writerId, messages.size(), Integer::sum);
-        
-        // Check if this writer needs file rolling
-        checkWriterFileRolling(writerId);
     }
     
-    private ParquetWriter<Group> getOrCreateWriter(String writerId) throws IOException {
-        return writers.computeIfAbsent(writerId, this::createWriterForId);
+    /**
+     * Writer lane loop: takes a batch as soon as {@code batchSize} messages are queued, or
+     * whatever has arrived once {@code batchTimeoutSeconds} passes. On shutdown it keeps
+     * draining until the queue is empty.
+     */
+    private void startWriterLane(String writerId) {
+        laneGauges.put(writerId, Gauge.builder("hdfs_writer_buffered_bytes", memoryBudget, budget -> budget.bufferedBytes(writerId))
+            .description("Heap held by the open Parquet writers a lane opened")
+            .baseUnit("bytes")
+            .tag("writer", writerId)
+            .register(meterRegistry));
+        Thread thread = Thread.ofPlatform()
+            .name("hdfs-" + writerId)
+            .daemon(true)
+            .unstarted(() -> runWriterLane(writerId));
+        writerThreads.put(writerId, thread);
+        thread.start();
     }
     
-    private ParquetWriter<Group> createWriterForId(String writerId) {
-        try {
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String partitionDir = evaluatePartitionPath(null); // Use current date
-            String instanceId = getInstanceId();
-            
-            Path dir = new Path(outputPath + "/" + partitionDir);
-            String fileName = "telemetry-" + timestamp + "-" + instanceId + "-" + writerId + "-" + System.currentTimeMillis() + ".parquet";
-            String filePath = dir + "/" + fileName;
-            Path file = new Path(filePath);
-            
-            String schemaString = buildParquetSchema();
-            MessageType schema = MessageTypeParser.parseMessageType(schemaString);
-            
-            Configuration writerConf = new Configuration(hadoopConf);
-            GroupWriteSupport.setSchema(schema, writerConf);
-            writerConf.setInt("dfs.replication", replicationFactor);
-            
-            ParquetWriter<Group> writer = org.apache.parquet.hadoop.example.ExampleParquetWriter.builder(file)
-                    .withConf(writerConf)
-                    .withCompressionCodec(CompressionCodecName.SNAPPY)
-                    .withWriteMode(org.apache.parquet.hadoop.ParquetFileWriter.Mode.CREATE)
-                    .withType(schema)
-                    .build();
-            
-            // Track file metadata
-            writerFilePaths.put(writerId, filePath);
-            writerStartTimes.put(writerId, System.currentTimeMillis());
-            writerMessageCounts.put(writerId, 0);
-            
-            log.info("Created new HDFS Parquet writer {}: {}", writerId, filePath);
-            meterRegistry.counter("hdfs_files_created_total").increment();
-            
-            return writer;
-            
-        } catch (IOException e) {
-            log.error("Failed to create writer for {}", writerId, e);
-            throw new RuntimeException("Failed to create writer", e);
-        }
+    int activeLaneCount() {
+        return writerThreads.size() - retiringLanes.size();
     }
     
-    private String getInstanceId() {
-        // Try CloudFoundry instance index first
-        String cfIndex = System.getenv("CF_INSTANCE_INDEX");
-        if (cfIndex != null && !cfIndex.isEmpty()) {
-            return "cf-" + cfIndex;
-        }
-        
-        // Fallback to hostname
-        try {
-            return java.net.InetAddress.getLocalHost().getHostName();
-        } catch (Exception e) {
-            return "instance-" + Thread.currentThread().threadId();
-        }
+    WriteCircuitBreaker writeCircuit() {
+        return writeCircuit;
+    }
+    
+    int unackedMessages() {
+        return channelAcks.values().stream().mapToInt(DeliveryAcks::outstanding).sum();
     }
     
-    private void writeMessageToWriter(ParquetWriter<Group> writer, String message, String writerId) throws IOException {
-        if (writer == null) {
-            throw new IllegalStateException("Writer " + writerId + " not initialized");
+    int pendingCommits() {
+        return commitExecutor.getQueue().size() + commitExecutor.getActiveCount();
+    }
+    
+    int stagedFilesPending() {
+        return staging == null ? 0 : pendingUploads.size() + uploadExecutor.getQueue().size() + uploadExecutor.getActiveCount();
+    }
+    
+    /**
+     * The last writer handed over for commit and why it was rolled.
+     */
+    record RollEvent(String writerId, String filePath, String reason, long timeMillis) {
+    }
+    
+    /**
+     * Live pipeline state for {@link HdfsSinkEndpoint}. Read without taking any lane's lock,
+     * so per-writer figures may trail the writing lane by a batch.
+     */
+    HdfsSinkEndpoint.Snapshot snapshot() {
+        long now = System.currentTimeMillis();
+        List<HdfsSinkEndpoint.WriterState> writers = memoryBudget.writers().stream()
+            .map(writer -> new HdfsSinkEndpoint.WriterState(writer.writerId(), writer.partition(), writer.filePath(),
+                writer.messageCount(), writer.bufferedBytes(),
+                TimeUnit.MILLISECONDS.toSeconds(now - writer.startTime()),
+                TimeUnit.MILLISECONDS.toSeconds(now - writer.lastWriteTime())))
+            .sorted(Comparator.comparing(HdfsSinkEndpoint.WriterState::writerId)
+                .thenComparing(HdfsSinkEndpoint.WriterState::partition))
+            .toList();
+        RollEvent roll = lastRoll;
+        long committed = lastCommitMillis;
+        return new HdfsSinkEndpoint.Snapshot(
+            messageQueue.size(), messageQueue.bytes(), unackedMessages(), activeLaneCount(),
+            pendingCommits(), stagedFilesPending(), writeCircuit.state().name(), memoryBudget.bufferedBytes(),
+            writers,
+            roll == null ? null : new HdfsSinkEndpoint.Roll(roll.writerId(), roll.filePath(), roll.reason(),
+                Instant.ofEpochMilli(roll.timeMillis())),
+            committed == 0 ? null : Instant.ofEpochMilli(committed),
+            committed == 0 ? null : TimeUnit.MILLISECONDS.toSeconds(now - committed));
+    }
+    
+    /**
+     * Rolls every open writer, as if each had reached its size limit.
+     *
+     * @return how many writers were handed over for commit
+     */
+    int rollAllWriters(String reason) {
+        int rolled = 0;
+        for (PartitionWriter writer : openWriters()) {
+            if (rollWriter(writer, reason)) {
+                rolled++;
+            }
         }
-        
-        String schemaString = buildParquetSchema();
-        MessageType schema = MessageTypeParser.parseMessageType(schemaString);
-        Group group = createGroupFromJson(schema, message);
-        writer.write(group);
-        
-        // Force flush for immediate visibility in demo mode
-        if (forceFlush) {
-            writer.close();
-            writers.remove(writerId); // Will be recreated on next write
-            writerFilePaths.remove(writerId);
-            writerStartTimes.remove(writerId);
-            writerMessageCounts.remove(writerId);
+        if (rolled > 0) {
+            log.info("Rolled {} open writers on request ({})", rolled, reason);
         }
+        return rolled;
     }
     
-    private void checkWriterFileRolling(String writerId) {
-        ParquetWriter<Group> writer = writers.get(writerId);
-        if (writer == null) {
+    /**
+     * Adds or retires a lane when {@link WriterLaneController} sees sustained pressure or
+     * slack. New lanes take the next free id; the highest lane is the one retired, so ids
+     * stay contiguous.
+     */
+    synchronized void adjustWriterLanes() {
+        if (shutdownRequested.get()) {
             return;
         }
+        long now = System.nanoTime();
+        int lanes = activeLaneCount();
+        long elapsed = Math.max(1, now - lastLaneEvaluationNanos);
+        lastLaneEvaluationNanos = now;
+        laneUtilization = Math.min(1.0, (double) laneBusyNanos.getAndSet(0) / ((double) elapsed * Math.max(1, lanes)));
         
-        boolean shouldRoll = false;
-        String reason = "";
-        
-        // Check file age
-        Long startTime = writerStartTimes.get(writerId);
-        if (startTime != null) {
-            long fileAgeMillis = System.currentTimeMillis() - startTime;
-            if (fileAgeMillis > maxFileAgeMinutes * 60 * 1000) {
-                shouldRoll = true;
-                reason = "age";
+        int decision = laneController.evaluate(lanes, messageQueue.size(), laneUtilization);
+        if (decision > 0) {
+            int index = 0;
+            while (writerThreads.containsKey(writerIdFor(index))) {
+                index++;
             }
-        }
-        
-        // Check message count
-        Integer messageCount = writerMessageCounts.get(writerId);
-        if (messageCount != null && messageCount >= maxMessagesPerFile) {
-            shouldRoll = true;
-            reason = "message count";
-        }
-        
-        // Check file size
-        String filePath = writerFilePaths.get(writerId);
-        if (filePath != null) {
-            long fileSizeBytes = getFileSize(filePath);
-            double fileSizeMB = fileSizeBytes / (1024.0 * 1024.0);
-            if (fileSizeMB > maxFileSizeMB) {
-                shouldRoll = true;
-                reason = "file size";
+            startWriterLane(writerIdFor(index));
+            meterRegistry.counter("hdfs_writer_lane_changes_total", "direction", "up").increment();
+            log.info("Added writer lane {} ({} lanes, queue depth {}, utilization {})",
+                writerIdFor(index), lanes + 1, messageQueue.size(), String.format("%.2f", laneUtilization));
+        } else if (decision < 0) {
+            String retiring = null;
+            for (int index = writerThreads.size() - 1; index >= 0 && retiring == null; index--) {
+                String writerId = writerIdFor(index);
+                if (writerThreads.containsKey(writerId) && !retiringLanes.contains(writerId)) {
+                    retiring = writerId;
+                }
+            }
+            if (retiring != null) {
+                retiringLanes.add(retiring);
+                meterRegistry.counter("hdfs_writer_lane_changes_total", "direction", "down").increment();
+                log.info("Retiring writer lane {} ({} lanes, queue depth {}, utilization {})",
+                    retiring, lanes - 1, messageQueue.size(), String.format("%.2f", laneUtilization));
             }
-        }
-        
-        if (shouldRoll) {
-            closeWriter(writerId, reason);
         }
     }
     
-    private void closeWriter(String writerId, String reason) {
-        ParquetWriter<Group> writer = writers.remove(writerId);
-        if (writer != null) {
-            try {
-                String filePath = writerFilePaths.remove(writerId);
-                Integer messageCount = writerMessageCounts.remove(writerId);
-                writerStartTimes.remove(writerId);
-                
-                // Check minimum message threshold
-                if (messageCount != null && messageCount < minMessagesPerFile) {
-                    log.warn("Discarding file {} with only {} messages (minimum: {})", 
-                            filePath, messageCount, minMessagesPerFile);
-                    writer.close();
-                    // Delete the small file from HDFS
-                    deleteSmallFile(filePath);
-                    meterRegistry.counter("hdfs_files_discarded_total").increment();
-                } else {
-                    writer.close();
-                    log.info("Closed writer {} due to {} with {} messages: {}", 
-                            writerId, reason, messageCount, filePath);
-                    meterRegistry.counter("hdfs_files_closed_total").increment();
-                }
-            } catch (Exception e) {
-                log.error("Error closing writer {}", writerId, e);
+    private void runWriterLane(String writerId) {
+        List<SinkMessage> batch = new ArrayList<>(batchSize);
+        long maxWaitMillis = TimeUnit.SECONDS.toMillis(batchTimeoutSeconds);
+        try {
+            drainLane(writerId, batch, maxWaitMillis);
+        } finally {
+            if (retiringLanes.contains(writerId)) {
+                retireLane(writerId);
             }
         }
     }
     
-    private void deleteSmallFile(String filePath) {
-        if (filePath == null) return;
-        
-        try {
-            FileSystem fs = FileSystem.get(hadoopConf);
-            Path path = new Path(filePath);
-            if (fs.exists(path)) {
-                boolean deleted = fs.delete(path, false);
-                if (deleted) {
-                    log.info("Deleted small file: {}", filePath);
+    private void drainLane(String writerId, List<SinkMessage> batch, long maxWaitMillis) {
+        while ((!shutdownRequested.get() || !messageQueue.isEmpty()) && !retiringLanes.contains(writerId)) {
+            batch.clear();
+            try {
+                if (!awaitWritePermit()) {
+                    log.warn("Writer {} stopped with HDFS writes failing; {} queued messages are left to the spool and broker redelivery",
+                            writerId, messageQueue.size());
+                    return;
+                }
+                if (messageQueue.drainTo(batch, batchSize, maxWaitMillis, TimeUnit.MILLISECONDS) > 0) {
+                    processBatch(writerId, batch);
                 } else {
-                    log.warn("Failed to delete small file: {}", filePath);
+                    writeCircuit.release();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Writer {} interrupted with {} messages still queued", writerId, messageQueue.size());
+                return;
             }
-        } catch (Exception e) {
-            log.error("Error deleting small file {}: {}", filePath, e.getMessage());
         }
     }
     
-    private void ensureWriterExists() throws IOException {
-        if (currentWriter == null) {
-            createNewWriter();
+    /**
+     * Waits out the write backoff, or for the circuit to let this lane probe. Returns
+     * false once shutdown is requested while writes are still held back.
+     */
+    private boolean awaitWritePermit() throws InterruptedException {
+        long wait;
+        while ((wait = writeCircuit.permit()) > 0) {
+            if (shutdownRequested.get()) {
+                return false;
+            }
+            // Short naps so a shutdown is noticed
+            Thread.sleep(Math.min(wait, 1000));
         }
+        return true;
     }
     
-    private void ensureWriterExists(String sampleMessage) throws IOException {
-        if (currentWriter == null) {
-            // Set sample message before creating writer for partition evaluation
-            if (lastMessageForPartitioning == null && sampleMessage != null && !sampleMessage.trim().isEmpty()) {
-                lastMessageForPartitioning = sampleMessage;
-            }
-            createNewWriter();
+    // Runs on the retiring lane's own thread once it has finished its last batch. The files
+    // it opened stay in the shared pool for the remaining lanes and are counted in
+    // hdfs_buffered_bytes once the lane's own gauge is gone.
+    private void retireLane(String writerId) {
+        Gauge gauge = laneGauges.remove(writerId);
+        if (gauge != null) {
+            meterRegistry.remove(gauge);
+        }
+        synchronized (this) {
+            writerThreads.remove(writerId);
+            retiringLanes.remove(writerId);
         }
+        log.info("Writer lane {} retired", writerId);
     }
     
-    private void createNewWriter() throws IOException {
-        closeCurrentWriter();
-        
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        String partitionDir = evaluatePartitionPath();
-        Path dir = new Path(outputPath + "/" + partitionDir);
-        currentFilePath = dir + "/telemetry-" + timestamp + "-" + System.currentTimeMillis() + ".parquet";
-        Path file = new Path(currentFilePath);
-        
-        String schemaString = buildParquetSchema();
-        MessageType schema = MessageTypeParser.parseMessageType(schemaString);
-        
-        Configuration writerConf = new Configuration(hadoopConf);
-        GroupWriteSupport.setSchema(schema, writerConf);
-        
-        // Set replication factor
-        writerConf.setInt("dfs.replication", replicationFactor);
-        
-        currentWriter = org.apache.parquet.hadoop.example.ExampleParquetWriter.builder(file)
-                .withConf(writerConf)
-                .withCompressionCodec(CompressionCodecName.SNAPPY)
-                .withWriteMode(org.apache.parquet.hadoop.ParquetFileWriter.Mode.CREATE)
-                .withType(schema)
-                .build();
+    /**
+     * Writes a batch. On a failure the messages not yet written go back to the head of the
+     * queue, in order, to be retried once the write backoff has passed; see
+     * {@link WriteCircuitBreaker}. They have already been acked to the broker unless acks are
+     * manual, so dropping them would lose them.
+     */
+    private void processBatch(String writerId, List<SinkMessage> batch) {
+        long started = System.nanoTime();
+        int size = batch.size();
+        try {
+            processWriterBatch(writerId, batch);
+            
+            log.debug("Writer {} processed batch of {} messages", writerId, batch.size());
+            messagesWrittenCounter.increment(batch.size());
+            batchProcessingTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            if (writeCircuit.consecutiveFailures() > 0) {
+                log.info("HDFS writes recovered after {} failed attempts", writeCircuit.consecutiveFailures());
+            }
+            writeCircuit.recordSuccess();
                 
-        currentFileStartTime = System.currentTimeMillis();
-        currentFileMessageCount = 0;
-        lastMessageForPartitioning = null; // Reset for new file partitioning
-        
-        log.info("Created new HDFS Parquet writer: {}", currentFilePath);
-        meterRegistry.counter("hdfs_files_created_total").increment();
+        } catch (IOException | RuntimeException e) {
+            // processWriterBatch trimmed the batch down to the messages it did not write
+            messagesWrittenCounter.increment(size - batch.size());
+            writerFailuresCounter.increment();
+            batchProcessingErrorTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            messageQueue.requeueFirst(batch);
+            writeRetriesCounter.increment();
+            recordWriteFailure(writerId, batch.size(), e);
+        } finally {
+            laneBusyNanos.addAndGet(System.nanoTime() - started);
+        }
     }
     
-    private String evaluatePartitionPath() {
-        return evaluatePartitionPath(lastMessageForPartitioning);
+    private void recordWriteFailure(String writerId, int unwritten, Exception e) {
+        WriteCircuitBreaker.State before = writeCircuit.state();
+        writeCircuit.recordFailure();
+        long backoffMillis = Math.max(0, writeCircuit.retryAtMillis() - System.currentTimeMillis());
+        if (writeCircuit.state() == WriteCircuitBreaker.State.OPEN && before != WriteCircuitBreaker.State.OPEN) {
+            log.error("HDFS writes failed {} times in a row; pausing all writer lanes for {} ms before probing",
+                    writeCircuit.consecutiveFailures(), backoffMillis, e);
+        } else {
+            log.warn("Writer {} failed to write to HDFS; retrying {} messages in {} ms: {}",
+                    writerId, unwritten, backoffMillis, e.getMessage());
+        }
     }
     
-    private String evaluatePartitionPath(String messageForPartitioning) {
-        // If no custom partition path is configured, use default date partitioning
-        if (partitionPathTemplate == null || partitionPathTemplate.trim().isEmpty()) {
-            String date = LocalDate.now().toString();
-            return "date=" + date;
-        }
-        
-        // Start with the template
-        String result = partitionPathTemplate;
-        
-        // Replace date placeholder
-        if (result.contains("T(java.time.LocalDate).now().toString()")) {
-            result = result.replace("T(java.time.LocalDate).now().toString()", "'" + LocalDate.now().toString() + "'");
+    private void processWriterBatch(String writerId, List<SinkMessage> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
         }
         
-        // Parse JSON to extract payload values BEFORE string concatenation cleanup
-        if (result.contains("payload.") && messageForPartitioning != null) {
-            try {
-                JsonNode jsonNode = objectMapper.readTree(messageForPartitioning);
-                log.info("DEBUG: Full JSON message for partition evaluation: {}", messageForPartitioning);
-                log.info("DEBUG: JSON keys available: {}", jsonNode.fieldNames());
-                
-                // Replace payload.driver_id with actual value from JSON
-                if (result.contains("payload.driver_id")) {
-                    String driverId = extractJsonValue(jsonNode, "driver_id", "unknown");
-                    log.info("DEBUG: Raw JSON driver_id field: {}", jsonNode.get("driver_id"));
-                    log.info("DEBUG: Extracted driver_id value: '{}'", driverId);
-                    log.info("DEBUG: driver_id value type: {}", driverId.getClass().getSimpleName());
-                    result = result.replace("payload.driver_id", "'" + driverId + "'");
-                    log.info("DEBUG: Partition path after driver_id substitution: {}", result);
+        TelemetryRecord record = recordParser.newRecord();
+        Map<String, PartitionWriter> touched = new LinkedHashMap<>();
+        int written = 0;
+        boolean taken = false;
+        PartitionWriter failed = null;
+        try {
+            for (; written < messages.size(); written++) {
+                SinkMessage message = messages.get(written);
+                if (!parseRecord(message.payload(), record)) {
+                    discard(message);
+                    continue;
                 }
                 
-                // Add support for other payload fields if needed
-                if (result.contains("payload.vehicle_id")) {
-                    String vehicleId = extractJsonValue(jsonNode, "vehicle_id", "unknown");
-                    result = result.replace("payload.vehicle_id", "'" + vehicleId + "'");
+                String partition = partitionTemplate.evaluate(record);
+                PartitionWriter writer = touched.get(partition);
+                while (true) {
+                    if (writer == null) {
+                        writer = getOrCreateWriter(writerId, partition);
+                    }
+                    // Other lanes write to the same file; each record goes in under its lock
+                    synchronized (writer) {
+                        if (!writer.isRetired()) {
+                            int rows = writer.messageCount();
+                            try {
+                                if (partitionByEventTime) {
+                                    trackEventTime(record, writer);
+                                }
+                                writer.write(record, message);
+                            } catch (IOException | RuntimeException e) {
+                                taken = writer.messageCount() > rows;
+                                writer.retire();
+                                failed = writer;
+                                throw e;
+                            }
+                            break;
+                        }
+                    }
+                    // Rolled since it was looked up: the next lookup opens a new file
+                    writer = null;
                 }
-                
-                if (result.contains("payload.policy_id")) {
-                    String policyId = extractJsonValue(jsonNode, "policy_id", "unknown");
-                    result = result.replace("payload.policy_id", "'" + policyId + "'");
+                touched.put(partition, writer);
+            }
+            
+            // Check if the writers used by this batch need file rolling
+            for (PartitionWriter writer : touched.values()) {
+                String reason;
+                synchronized (writer) {
+                    if (writer.isRetired()) {
+                        continue;
+                    }
+                    writer.refreshBufferedBytes();
+                    reason = rollReason(writer);
+                }
+                if (reason != null) {
+                    rollWriter(writer, reason);
                 }
-                
-            } catch (Exception e) {
-                log.warn("Failed to parse JSON for partition path evaluation: {}", e.getMessage());
-                // Fallback: replace any remaining payload.* with "unknown"
-                result = result.replaceAll("payload\\.[a-zA-Z_][a-zA-Z0-9_]*", "'unknown'");
             }
-        } else if (result.contains("payload.")) {
-            // No message available for parsing, use fallback
-            log.warn("No message available for partition path evaluation, using fallback");
-            result = result.replaceAll("payload\\.[a-zA-Z_][a-zA-Z0-9_]*", "'unknown'");
+            
+            if (!channelAcks.isEmpty()) {
+                relieveAckBacklog();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Leave only the unwritten messages for the retry; none once the whole batch
+            // is in its writers. A record the writer took before failing to flush belongs
+            // to its file and is not retried. A writer that failed mid-write is not trusted
+            // with more rows: commit what it holds, or, when its flush failed and Parquet
+            // gave up the file, hand its messages back through the spool or the broker.
+            if (taken) {
+                written++;
+            }
+            messages.subList(0, written).clear();
+            if (failed != null) {
+                synchronized (writerPool) {
+                    writerPool.remove(failed);
+                }
+                commitWriter(failed, "write failure");
+            }
+            throw e;
         }
         
-        // Basic SpEL-like evaluation - remove quotes and plus signs for concatenation
-        result = result.replaceAll("'([^']*)'\\s*\\+\\s*", "$1");
-        result = result.replaceAll("\\+\\s*'([^']*)'", "$1");
-        result = result.replaceAll("'([^']*)'", "$1");
-        
-        log.debug("Evaluated partition path: {}", result);
-        return result;
+        enforceMemoryBudget();
     }
     
-    private String extractJsonValue(JsonNode jsonNode, String fieldName, String defaultValue) {
-        JsonNode fieldNode = jsonNode.get(fieldName);
-        if (fieldNode != null && !fieldNode.isNull()) {
-            String value;
-            if (fieldNode.isTextual()) {
-                value = fieldNode.asText();
-            } else {
-                value = fieldNode.toString();
+    /**
+     * Rolls the writer holding the most memory while open writers exceed the budget;
+     * committing it writes out its row group early and frees the buffer. One writer per
+     * batch is enough, since every lane checks after each of its batches.
+     */
+    private void enforceMemoryBudget() {
+        PartitionWriter largest = memoryBudget.largestOverBudget();
+        if (largest != null && rollWriter(largest, "memory budget")) {
+            meterRegistry.counter("hdfs_memory_budget_rolls_total").increment();
+        }
+    }
+    
+    /**
+     * Manual-ack mode: once a channel's unacked deliveries approach its prefetch the broker
+     * stops delivering, and files that never fill would hold their messages until they age
+     * out. Rolling the largest file early releases them instead.
+     */
+    private void relieveAckBacklog() {
+        int outstanding = channelAcks.values().stream().mapToInt(DeliveryAcks::outstanding).max().orElse(0);
+        if (outstanding < manualAckPrefetch() * 3L / 4) {
+            return;
+        }
+        PartitionWriter largest = null;
+        for (PartitionWriter writer : openWriters()) {
+            if (!writer.deliveries().isEmpty() && (largest == null || writer.messageCount() > largest.messageCount())) {
+                largest = writer;
             }
-            
-            // Clean up driver_id by removing DRIVER- prefix if present
-            if ("driver_id".equals(fieldName) && value.startsWith("DRIVER-")) {
-                value = value.substring(7); // Remove "DRIVER-" prefix
-                log.info("DEBUG: Cleaned driver_id from '{}' to '{}'", fieldNode.asText(), value);
+        }
+        // Not worth a file unless it frees at least a batch
+        if (largest != null && largest.messageCount() >= batchSize && rollWriter(largest, "ack backlog")) {
+            meterRegistry.counter("hdfs_ack_backlog_rolls_total").increment();
+        }
+    }
+    
+    /**
+     * Advances the watermark and counts records whose day had already been closed by it.
+     * Late records are still written to their own day, in a new file the compactor merges
+     * later. Event times ahead of the wall clock do not advance the watermark, so a
+     * single skewed device cannot close today early.
+     */
+    private void trackEventTime(TelemetryRecord record, PartitionWriter writer) {
+        long partitionEnd = partitionTemplate.partitionEndMillis(record);
+        if (writer.messageCount() == 0) {
+            writer.setPartitionEndMillis(partitionEnd);
+        }
+        if (partitionEnd <= eventTimeWatermark()) {
+            lateRecordsCounter.increment();
+        }
+        if (record.isPresent(EVENT_TIME)) {
+            long eventTime = Math.min(record.getLong(EVENT_TIME), System.currentTimeMillis());
+            if (eventTime > maxEventTime.get()) {
+                maxEventTime.accumulateAndGet(eventTime, Math::max);
             }
-            
-            return value;
-        }
-        return defaultValue;
-    }
-    
-    private String buildParquetSchema() {
-        return """
-            message telemetry {
-                optional int64 policy_id;
-                optional int64 vehicle_id;
-                optional binary vin (UTF8);
-                optional binary event_time (UTF8);
-                optional double speed_mph;
-                optional int32 speed_limit_mph;
-                optional binary current_street (UTF8);
-                optional double g_force;
-                optional int32 driver_id;
-                
-                optional double gps_latitude;
-                optional double gps_longitude;
-                optional double gps_altitude;
-                optional double gps_speed;
-                optional double gps_bearing;
-                optional double gps_accuracy;
-                optional int32 gps_satellite_count;
-                optional int32 gps_fix_time;
-                
-                optional double accelerometer_x;
-                optional double accelerometer_y;
-                optional double accelerometer_z;
-                
-                optional double gyroscope_x;
-                optional double gyroscope_y;
-                optional double gyroscope_z;
-                
-                optional double magnetometer_x;
-                optional double magnetometer_y;
-                optional double magnetometer_z;
-                optional double magnetometer_heading;
-                
-                optional double barometric_pressure;
+        }
+    }
+    
+    /**
+     * Newest event time seen minus the allowed lateness; {@link Long#MIN_VALUE} until the
+     * first event arrives.
+     */
+    long eventTimeWatermark() {
+        long newest = maxEventTime.get();
+        return newest == Long.MIN_VALUE ? Long.MIN_VALUE : newest - TimeUnit.MINUTES.toMillis(allowedLatenessMinutes);
+    }
+    
+    /**
+     * The partition's open writer, or a new one. The file is created under the pool's lock
+     * so two lanes never open one for the same partition.
+     */
+    private PartitionWriter getOrCreateWriter(String writerId, String partition) throws IOException {
+        PartitionWriter evicted = null;
+        try {
+            synchronized (writerPool) {
+                PartitionWriter writer = writerPool.get(partition);
+                if (writer != null && !writer.isRetired()) {
+                    return writer;
+                }
+                if (writer != null) {
+                    // Being rolled by another thread
+                    writerPool.remove(writer);
+                }
                 
-                optional int32 device_battery_level;
-                optional int32 device_signal_strength;
-                optional binary device_orientation (UTF8);
-                optional boolean device_screen_on;
-                optional boolean device_charging;
+                evicted = writerPool.evictIfFull();
+                writer = createWriter(writerId, partition, writerPool.runBuffers());
+                writerPool.put(writer);
+                memoryBudget.register(writer);
+                return writer;
+            }
+        } finally {
+            if (evicted != null && rollWriter(evicted, "evicted")) {
+                meterRegistry.counter("hdfs_writers_evicted_total").increment();
             }
-            """;
+        }
     }
     
-    private Group createGroupFromJson(MessageType schema, String jsonMessage) {
-        Group group = new SimpleGroup(schema);
-        
-        try {
-            JsonNode jsonNode = objectMapper.readTree(jsonMessage);
-            
-            // Core vehicle data
-            addOptionalField(group, jsonNode, "policy_id", Long.class);
-            addOptionalField(group, jsonNode, "vehicle_id", Long.class);
-            addOptionalField(group, jsonNode, "vin", String.class);
-            addOptionalField(group, jsonNode, "event_time", String.class);
-            addOptionalField(group, jsonNode, "speed_mph", Double.class);
-            addOptionalField(group, jsonNode, "speed_limit_mph", Integer.class);
-            addOptionalField(group, jsonNode, "current_street", String.class);
-            addOptionalField(group, jsonNode, "g_force", Double.class);
-            addOptionalField(group, jsonNode, "driver_id", Integer.class);
-            
-            // GPS data
-            addOptionalField(group, jsonNode, "gps_latitude", Double.class);
-            addOptionalField(group, jsonNode, "gps_longitude", Double.class);
-            addOptionalField(group, jsonNode, "gps_altitude", Double.class);
-            addOptionalField(group, jsonNode, "gps_speed", Double.class);
-            addOptionalField(group, jsonNode, "gps_bearing", Double.class);
-            addOptionalField(group, jsonNode, "gps_accuracy", Double.class);
-            addOptionalField(group, jsonNode, "gps_satellite_count", Integer.class);
-            addOptionalField(group, jsonNode, "gps_fix_time", Integer.class);
-            
-            // Accelerometer data
-            addOptionalField(group, jsonNode, "accelerometer_x", Double.class);
-            addOptionalField(group, jsonNode, "accelerometer_y", Double.class);
-            addOptionalField(group, jsonNode, "accelerometer_z", Double.class);
-            
-            // Gyroscope data
-            addOptionalField(group, jsonNode, "gyroscope_x", Double.class);
-            addOptionalField(group, jsonNode, "gyroscope_y", Double.class);
-            addOptionalField(group, jsonNode, "gyroscope_z", Double.class);
-            
-            // Magnetometer data
-            addOptionalField(group, jsonNode, "magnetometer_x", Double.class);
-            addOptionalField(group, jsonNode, "magnetometer_y", Double.class);
-            addOptionalField(group, jsonNode, "magnetometer_z", Double.class);
-            addOptionalField(group, jsonNode, "magnetometer_heading", Double.class);
-            
-            // Environmental data
-            addOptionalField(group, jsonNode, "barometric_pressure", Double.class);
-            
-            // Device data
-            addOptionalField(group, jsonNode, "device_battery_level", Integer.class);
-            addOptionalField(group, jsonNode, "device_signal_strength", Integer.class);
-            addOptionalField(group, jsonNode, "device_orientation", String.class);
-            addOptionalField(group, jsonNode, "device_screen_on", Boolean.class);
-            addOptionalField(group, jsonNode, "device_charging", Boolean.class);
-            
-        } catch (Exception e) {
-            log.error("Failed to parse JSON message for parquet writing: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to parse JSON message", e);
+    private List<PartitionWriter> openWriters() {
+        synchronized (writerPool) {
+            return writerPool.writers();
         }
-        
-        return group;
     }
     
-    private void addOptionalField(Group group, JsonNode jsonNode, String fieldName, Class<?> fieldType) {
-        JsonNode fieldNode = jsonNode.get(fieldName);
-        if (fieldNode != null && !fieldNode.isNull()) {
-            try {
-                if (fieldType == String.class) {
-                    group.add(fieldName, fieldNode.asText());
-                } else if (fieldType == Integer.class) {
-                    group.add(fieldName, fieldNode.asInt());
-                } else if (fieldType == Long.class) {
-                    // Convert integers to long for int64 parquet fields
-                    group.add(fieldName, fieldNode.asLong());
-                } else if (fieldType == Float.class) {
-                    group.add(fieldName, (float) fieldNode.asDouble());
-                } else if (fieldType == Double.class) {
-                    group.add(fieldName, fieldNode.asDouble());
-                } else if (fieldType == Boolean.class) {
-                    group.add(fieldName, fieldNode.asBoolean());
-                }
-            } catch (Exception e) {
-                log.warn("Failed to add field {} with value {}: {}", fieldName, fieldNode, e.getMessage());
+    /**
+     * Takes a writer out of the pool and hands it over for commit. Lanes that looked it up
+     * before see it retired once they hold its lock, and open a new file instead of writing
+     * to this one.
+     *
+     * @return false if another thread rolled it first
+     */
+    private boolean rollWriter(PartitionWriter writer, String reason) {
+        synchronized (writer) {
+            if (writer.isRetired()) {
+                return false;
             }
+            writer.retire();
+        }
+        synchronized (writerPool) {
+            writerPool.remove(writer);
         }
+        commitWriter(writer, reason);
+        return true;
     }
     
-    private void writeMessage(String message) throws IOException {
-        if (currentWriter == null) {
-            throw new IllegalStateException("Writer not initialized");
-        }
+    private PartitionWriter createWriter(String writerId, String partition, RunBufferPool runBuffers) throws IOException {
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        String instanceId = getInstanceId();
         
-        String schemaString = buildParquetSchema();
-        MessageType schema = MessageTypeParser.parseMessageType(schemaString);
-        Group group = createGroupFromJson(schema, message);
-        currentWriter.write(group);
+        Path dir = new Path(outputPath + "/" + partition);
+        String fileName = "telemetry-" + timestamp + "-" + instanceId + "-" + writerId + "-" + System.currentTimeMillis() + ".parquet";
+        String filePath = dir + "/" + fileName;
+        // Written under a hidden name and renamed on commit so readers never see a partial file
+        Path file = new Path(PartitionWriter.inProgressPathFor(filePath));
         
-        // Force flush for immediate visibility in demo mode
-        if (forceFlush) {
-            currentWriter.close();
-            currentWriter = null; // Will be recreated on next write
+        TrackedOutputFile output;
+        if (staging != null) {
+            output = new TrackedOutputFile(new FileSystemOutputFile(staging.fileSystem(), staging.inProgressPathFor(filePath), replicationFactor));
+        } else {
+            countNamenodeRpc("create");
+            // Held until the file is closed, so a replaced client is not closed under it
+            ManagedFileSystem.Lease client = fileSystem.lease();
+            output = new TrackedOutputFile(new FileSystemOutputFile(client.fileSystem(), file, replicationFactor), client);
+        }
+        ParquetWriter<TelemetryRecord> writer;
+        try {
+            writer = parquetProperties.applyTo(TelemetryWriteSupport.builder(output), writerConf)
+                    .withWriteMode(org.apache.parquet.hadoop.ParquetFileWriter.Mode.CREATE)
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            output.release();
+            throw e;
         }
+        
+        log.info("Created new HDFS Parquet writer {}: {}", writerId, file);
+        meterRegistry.counter("hdfs_files_created_total").increment();
+        
+        return new PartitionWriter(writerId, partition, filePath, writer, runBuffers, output);
     }
     
-    private void checkFileRolling() {
-        if (currentWriter == null) {
-            return;
+    private String getInstanceId() {
+        // Try CloudFoundry instance index first
+        String cfIndex = System.getenv("CF_INSTANCE_INDEX");
+        if (cfIndex != null && !cfIndex.isEmpty()) {
+            return "cf-" + cfIndex;
         }
         
-        boolean shouldRoll = false;
-        String reason = "";
+        // Fallback to hostname
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "instance-" + Thread.currentThread().threadId();
+        }
+    }
+    
+    /**
+     * Why the writer's file should be committed now, or null. Called holding the writer's lock.
+     */
+    private String rollReason(PartitionWriter writer) {
+        String reason = null;
         
         // Check file age
-        long fileAgeMillis = System.currentTimeMillis() - currentFileStartTime;
+        long fileAgeMillis = System.currentTimeMillis() - writer.startTime();
         if (fileAgeMillis > TimeUnit.MINUTES.toMillis(maxFileAgeMinutes)) {
-            shouldRoll = true;
-            reason = "file age exceeded " + maxFileAgeMinutes + " minutes";
+            reason = "age";
         }
         
         // Check message count
-        if (currentFileMessageCount >= maxMessagesPerFile) {
-            shouldRoll = true;
-            reason = "message count exceeded " + maxMessagesPerFile;
+        if (writer.messageCount() >= maxMessagesPerFile) {
+            reason = "message count";
         }
         
-        // Check file size
-        if (currentFilePath != null) {
-            long fileSizeBytes = getFileSize(currentFilePath);
-            double fileSizeMB = fileSizeBytes / (1024.0 * 1024.0);
-            if (fileSizeMB > maxFileSizeMB) {
-                shouldRoll = true;
-                reason = "file size exceeded " + maxFileSizeMB + " MB";
+        // Check file size: bytes already written plus row group data still buffered in memory
+        double fileSizeMB = writer.dataSize() / (1024.0 * 1024.0);
+        if (fileSizeMB > maxFileSizeMB) {
+            reason = "file size";
+        }
+        return reason;
+    }
+    
+    /**
+     * Hands a writer that has left its pool to the commit executor; the next message for the
+     * partition opens a fresh writer straight away.
+     */
+    private void commitWriter(PartitionWriter writer, String reason) {
+        memoryBudget.unregister(writer);
+        lastRoll = new RollEvent(writer.writerId(), writer.filePath(), reason, System.currentTimeMillis());
+        commitExecutor.execute(() -> closeWriter(writer, reason));
+    }
+    
+    private void closeWriter(PartitionWriter writer, String reason) {
+        String filePath = writer.filePath();
+        int messageCount = writer.messageCount();
+        long fileBytes = 0;
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            if (staging != null) {
+                writer.close();
+                staging.seal(filePath);
+            } else {
+                countNamenodeRpc("complete");
+                writer.close();
+                fileBytes = writer.fileLength();
+                publishFile(filePath);
+            }
+        } catch (Exception e) {
+            // Each message comes back from exactly one place: spooled copies are kept to be
+            // replayed on restart, unacked deliveries (never spooled) are handed back to the broker
+            log.error("Error closing writer {} for {}", writer.writerId(), filePath, e);
+            meterRegistry.counter("hdfs_file_close_failures_total").increment();
+            writeCircuit.recordFailure();
+            writer.deliveries().forEach(DeliveryAcks::requeue);
+            if (staging != null) {
+                deleteStaged(filePath);
             }
+            return;
         }
         
-        if (shouldRoll) {
-            log.info("Rolling HDFS file due to: {}", reason);
-            closeCurrentWriter();
+        if (staging != null) {
+            log.info("Staged writer {} due to {} with {} messages for upload: {}",
+                    writer.writerId(), reason, messageCount, filePath);
+            uploadExecutor.execute(() -> uploadStaged(new StagedUpload(filePath, writer)));
+            return;
         }
+        log.info("Committed writer {} due to {} with {} messages: {}", 
+                writer.writerId(), reason, messageCount, filePath);
+        completeCommit(filePath, writer.footer(), writer, fileBytes);
+        sample.stop(Timer.builder("hdfs_file_commit_duration")
+            .description("Time taken to close and commit a rolled file")
+            .register(meterRegistry));
     }
     
-    private void closeCurrentWriter() {
-        if (currentWriter != null) {
+    /**
+     * Indexes a published file and releases the messages it holds.
+     */
+    private void completeCommit(String filePath, ParquetMetadata footer, PartitionWriter writer, long fileBytes) {
+        if (manifestEnabled) {
+            recordInManifest(filePath, footer, fileBytes);
+        }
+        meterRegistry.counter("hdfs_files_closed_total").increment();
+        lastCommitMillis = System.currentTimeMillis();
+        
+        // Small files are kept and merged later instead of being discarded
+        if (compactor != null && compactor.isSmall(fileBytes)) {
+            compactor.markPartition(new Path(filePath).getParent().toString());
+        }
+        if (writer != null) {
+            if (spool != null) {
+                spool.release(writer.spoolSegments());
+            }
+            writer.deliveries().forEach(DeliveryAcks::ack);
+        }
+    }
+    
+    /**
+     * Uploads a sealed file with a single copy, publishes it and only then deletes the
+     * local copy. While uploads keep failing they are held back by their own circuit, and
+     * the file stays on local disk with its messages unreleased until a retry succeeds.
+     */
+    private void uploadStaged(StagedUpload upload) {
+        if (uploadCircuit.permit() > 0) {
+            pendingUploads.add(upload);
+            return;
+        }
+        String filePath = upload.filePath();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            ParquetMetadata footer = upload.writer() != null ? upload.writer().footer() : staging.footer(filePath);
+            countNamenodeRpc("create");
+            long bytes = staging.upload(fileSystem.get(), filePath);
+            publishFile(filePath);
+            uploadCircuit.recordSuccess();
+            log.info("Uploaded staged file {} ({} bytes)", filePath, bytes);
+            meterRegistry.counter("hdfs_staged_bytes_uploaded_total").increment(bytes);
+            completeCommit(filePath, footer, upload.writer(), bytes);
+            deleteStaged(filePath);
+            sample.stop(Timer.builder("hdfs_file_commit_duration")
+                .description("Time taken to close and commit a rolled file")
+                .tag("mode", "staged")
+                .register(meterRegistry));
+        } catch (Exception e) {
+            uploadCircuit.recordFailure();
+            log.warn("Failed to upload staged file {}; keeping it for a retry: {}", filePath, e.getMessage());
+            meterRegistry.counter("hdfs_staged_upload_failures_total").increment();
+            pendingUploads.add(upload);
+        }
+    }
+    
+    private void retryStagedUploads() {
+        if (pendingUploads.isEmpty() || uploadCircuit.retryAtMillis() > System.currentTimeMillis()) {
+            return;
+        }
+        StagedUpload upload;
+        while ((upload = pendingUploads.poll()) != null) {
+            StagedUpload next = upload;
             try {
-                // Check minimum message threshold
-                if (currentFileMessageCount < minMessagesPerFile) {
-                    log.warn("Discarding file {} with only {} messages (minimum: {})", 
-                            currentFilePath, currentFileMessageCount, minMessagesPerFile);
-                    currentWriter.close();
-                    // Delete the small file from HDFS
-                    deleteSmallFile(currentFilePath);
-                    meterRegistry.counter("hdfs_files_discarded_total").increment();
-                } else {
-                    currentWriter.close();
-                    log.info("Closed HDFS Parquet file: {} with {} messages", currentFilePath, currentFileMessageCount);
-                    meterRegistry.counter("hdfs_files_closed_total").increment();
-                    meterRegistry.counter("hdfs_bytes_written_total").increment(getFileSize(currentFilePath));
-                }
-            } catch (Exception e) {
-                log.error("Error closing HDFS writer for file: {}", currentFilePath, e);
-                meterRegistry.counter("hdfs_file_close_failures_total").increment();
-            } finally {
-                currentWriter = null;
-                currentFilePath = null;
-                currentFileMessageCount = 0;
+                uploadExecutor.execute(() -> uploadStaged(next));
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the file stays staged and is uploaded after the restart
+                pendingUploads.add(next);
+                return;
             }
         }
     }
     
-    private long getFileSize(String filePath) {
+    private void deleteStaged(String filePath) {
+        try {
+            staging.delete(filePath);
+        } catch (IOException e) {
+            log.warn("Failed to delete staged file for {}: {}", filePath, e.getMessage());
+        }
+    }
+    
+    /**
+     * Queues a committed file for its partition manifest. The file is already visible, so
+     * a failure here is counted and logged but does not fail the commit.
+     */
+    private void recordInManifest(String filePath, ParquetMetadata footer, long fileBytes) {
         try {
-            FileSystem fs = FileSystem.get(URI.create(namenodeUri), hadoopConf);
-            return fs.getFileStatus(new Path(filePath)).getLen();
+            Path file = new Path(filePath);
+            manifest.add(file.getParent(), PartitionManifest.entryFor(file.getName(), fileBytes, footer));
         } catch (Exception e) {
-            log.warn("Could not get file size for: {}", filePath, e);
-            return 0;
+            log.warn("Failed to add {} to its partition manifest", filePath, e);
+            meterRegistry.counter("hdfs_manifest_failures_total").increment();
         }
     }
     
+    /**
+     * Writes the queued manifest entries, one update per partition. Partitions that fail
+     * keep their entries for the next flush.
+     */
+    private void flushManifests() {
+        try {
+            manifest.flush(fileSystem.get());
+        } catch (Exception e) {
+            log.warn("Failed to update partition manifests: {}", e.getMessage());
+            meterRegistry.counter("hdfs_manifest_failures_total").increment();
+        }
+    }
+    
+    private void publishFile(String filePath) throws IOException {
+        FileSystem fs = fileSystem.get();
+        String inProgressPath = PartitionWriter.inProgressPathFor(filePath);
+        countNamenodeRpc("rename");
+        if (!fs.rename(new Path(inProgressPath), new Path(filePath))) {
+            throw new IOException("Failed to rename " + inProgressPath + " to " + filePath);
+        }
+    }
+    
+    private boolean parseRecord(byte[] jsonMessage, TelemetryRecord record) {
+        try {
+            recordParser.parse(jsonMessage, record);
+            return true;
+        } catch (Exception e) {
+            log.warn("Skipping message that is not valid telemetry JSON: {}", e.getMessage());
+            invalidMessagesCounter.increment();
+            return false;
+        }
+    }
+    
+    void checkFileRolling() {
+        // Channels closed by the broker or a connection loss have had their deliveries requeued
+        channelAcks.values().removeIf(acks -> !acks.isOpen());
+        long idleCutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(writerIdleTimeoutSeconds);
+        List<PartitionWriter> idle;
+        synchronized (writerPool) {
+            idle = writerPool.removeIdle(idleCutoff);
+        }
+        for (PartitionWriter writer : idle) {
+            rollWriter(writer, "idle");
+        }
+        long watermark = eventTimeWatermark();
+        for (PartitionWriter writer : openWriters()) {
+            String reason;
+            synchronized (writer) {
+                if (writer.isRetired()) {
+                    continue;
+                }
+                // Days the watermark has passed expect no more data, and writers that stopped
+                // receiving data still have to honour the age limit
+                reason = writer.partitionEndMillis() <= watermark ? "watermark" : rollReason(writer);
+            }
+            if (reason != null) {
+                rollWriter(writer, reason);
+            }
+        }
+    }
+    
+    /**
+     * Freshness target: commits every file whose first record has waited longer than
+     * {@code hdfs.visibility.latencySeconds}, so rows become readable within about that
+     * latency instead of at the next size, count or age roll. A writer is created by its
+     * first record, so the file's age is the age of its oldest row. The small files this
+     * produces are left to the compactor.
+     */
+    void commitForVisibility() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(visibilityLatencySeconds);
+        for (PartitionWriter writer : openWriters()) {
+            if (writer.startTime() <= cutoff && rollWriter(writer, "visibility")) {
+                meterRegistry.counter("hdfs_visibility_commits_total").increment();
+            }
+        }
+    }
+    
+    private void countNamenodeRpc(String operation) {
+        meterRegistry.counter("hdfs_namenode_rpc_total", "op", operation).increment();
+    }
+    
     private void closeAllWriters() {
         log.info("Closing all parallel writers...");
-        for (String writerId : new ArrayList<>(writers.keySet())) {
-            closeWriter(writerId, "shutdown");
+        for (PartitionWriter writer : openWriters()) {
+            rollWriter(writer, "shutdown");
         }
     }
     
@@ -847,14 +1543,56 @@ public class HdfsSink implements Consumer<String> {
         log.info("Shutting down HDFS Sink...");
         shutdownRequested.set(true);
         
-        // Process remaining messages
-        processBatch();
+        // Let the writer threads drain the remaining messages, or drain here if they never started
+        messageQueue.close();
+        if (writerThreads.isEmpty()) {
+            runWriterLane(writerIdFor(0));
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        for (Thread thread : List.copyOf(writerThreads.values())) {
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (thread.isAlive()) {
+                log.warn("Writer thread {} did not finish draining before shutdown", thread.getName());
+            }
+        }
         
-        // Close all parallel writers
+        // Close all parallel writers and wait for their commits
         closeAllWriters();
+        commitExecutor.shutdown();
+        try {
+            if (!commitExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("{} file commits still pending at shutdown", commitExecutor.getQueue().size() + commitExecutor.getActiveCount());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (staging != null) {
+            retryStagedUploads();
+            uploadExecutor.shutdown();
+            try {
+                if (!uploadExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                    log.warn("Uploads still running at shutdown");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!pendingUploads.isEmpty()) {
+                log.warn("{} staged files are left in {} and are uploaded on the next start", pendingUploads.size(), stagingDirectory);
+            }
+        }
         
-        // Close legacy writer if it exists
-        closeCurrentWriter();
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                log.warn("Failed to close write-ahead spool: {}", e.getMessage());
+            }
+        }
         
         scheduler.shutdown();
         try {
@@ -865,6 +1603,10 @@ public class HdfsSink implements Consumer<String> {
             scheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        if (manifestEnabled) {
+            flushManifests();
+        }
+        fileSystem.close();
         
         log.info("HDFS Sink shutdown complete. Processed {} total messages", messagesReceived.get());
     }
@@ -1,13 +1,71 @@
 package com.insurancemegacorp.hdfssink;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.Message;
 
 @SpringBootApplication
+@EnableConfigurationProperties(HdfsParquetProperties.class)
 public class HdfsSinkApplication {
     public static void main(String[] args) {
         SpringApplication.run(HdfsSinkApplication.class, args);
     }
-}
 
+    /**
+     * Batch consumer over raw payloads; select it with
+     * {@code spring.cloud.function.definition=writeToHdfsBatch} and batch mode on its binding.
+     */
+    @Bean
+    public Consumer<Message<List<byte[]>>> writeToHdfsBatch(HdfsSink hdfsSink) {
+        return hdfsSink::acceptBatch;
+    }
 
+    /**
+     * Sizes the prefetch of manually acked consumers to the sink's file and queue limits,
+     * see {@link HdfsSink#manualAckPrefetch()}. Bindings that ack automatically keep their
+     * configured prefetch.
+     */
+    @Bean
+    public ListenerContainerCustomizer<MessageListenerContainer> manualAckPrefetch(HdfsSink hdfsSink) {
+        return (container, destination, group) -> {
+            if (container instanceof AbstractMessageListenerContainer listenerContainer
+                    && listenerContainer.getAcknowledgeMode() == AcknowledgeMode.MANUAL) {
+                listenerContainer.setPrefetchCount(hdfsSink.manualAckPrefetch());
+            }
+        };
+    }
+
+    /**
+     * Publishes the HDFS write circuit as {@code hdfsWrites} health: {@code OUT_OF_SERVICE}
+     * while writes are paused after repeated failures, {@code UP} otherwise. Messages keep
+     * buffering while it is out of service, so it should not feed a liveness check.
+     */
+    @Bean
+    public HealthIndicator hdfsWritesHealthIndicator(HdfsSink hdfsSink) {
+        return () -> {
+            WriteCircuitBreaker circuit = hdfsSink.writeCircuit();
+            if (circuit == null) {
+                return Health.unknown().build();
+            }
+            Health.Builder health = circuit.state() == WriteCircuitBreaker.State.OPEN ? Health.outOfService() : Health.up();
+            health.withDetail("circuit", circuit.state())
+                .withDetail("consecutiveFailures", circuit.consecutiveFailures());
+            if (circuit.retryAtMillis() > 0) {
+                health.withDetail("retryAt", Instant.ofEpochMilli(circuit.retryAtMillis()));
+            }
+            return health.build();
+        };
+    }
+}
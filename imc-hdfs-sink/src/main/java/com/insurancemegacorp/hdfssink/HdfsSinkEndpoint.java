@@ -0,0 +1,55 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code /actuator/hdfs}: a snapshot of the sink's open writers and
+ * pipeline state on GET, and a forced roll of every open writer on POST.
+ *
+ * Expose it with {@code management.endpoints.web.exposure.include}. The POST commits
+ * every open file, so on a shared management port it belongs behind the same access
+ * rules as the other write operations.
+ */
+@Component
+@Endpoint(id = "hdfs")
+public class HdfsSinkEndpoint {
+
+    private final HdfsSink hdfsSink;
+
+    public HdfsSinkEndpoint(HdfsSink hdfsSink) {
+        this.hdfsSink = hdfsSink;
+    }
+
+    @ReadOperation
+    public Snapshot snapshot() {
+        return hdfsSink.snapshot();
+    }
+
+    /**
+     * Commits every open file now, e.g. to make recent rows readable or to release a
+     * writer that looks stuck; the next message for a partition opens a fresh file.
+     */
+    @WriteOperation
+    public Map<String, Integer> roll() {
+        return Map.of("rolled", hdfsSink.rollAllWriters("forced"));
+    }
+
+    public record Snapshot(int queueDepth, long queueBytes, int unackedMessages, int writerLanes,
+                           int pendingCommits, int stagedFilesPending, String writeCircuit, long bufferedBytes,
+                           List<WriterState> writers, Roll lastRoll, Instant lastCommit, Long secondsSinceLastCommit) {
+    }
+
+    public record WriterState(String writerId, String partition, String filePath, int rows, long bufferedBytes,
+                              long ageSeconds, long idleSeconds) {
+    }
+
+    public record Roll(String writerId, String filePath, String reason, Instant at) {
+    }
+}
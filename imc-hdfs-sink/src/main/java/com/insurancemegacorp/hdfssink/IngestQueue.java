@@ -0,0 +1,226 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FIFO buffer between the binder thread and the HDFS writers, bounded both by message
+ * count and by an estimate of the heap held by the queued payloads.
+ *
+ * Producers block in {@link #offer(SinkMessage, long, TimeUnit)} while the budget is exhausted,
+ * which stalls the RabbitMQ listener and lets broker prefetch apply backpressure instead
+ * of growing the heap. A single message larger than the byte budget is still admitted
+ * once the queue is empty so it can never wedge the sink.
+ *
+ * Writer lanes block in {@link #drainTo(List, int, long, TimeUnit)} until a full batch is
+ * queued, so the batch timeout only bounds latency at low rates.
+ */
+final class IngestQueue {
+
+    // SinkMessage object plus the header of its payload array
+    private static final long MESSAGE_OVERHEAD_BYTES = 56;
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final ArrayDeque<SinkMessage> messages = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition batchReady = lock.newCondition();
+    private long bytes;
+    // Smallest backlog worth waking a waiting writer for
+    private int readyThreshold = 1;
+    private boolean closed;
+
+    IngestQueue(int maxMessages, long maxBytes) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Queue bounds must be positive");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    static long weigh(SinkMessage message) {
+        return MESSAGE_OVERHEAD_BYTES + message.payload().length;
+    }
+
+    /**
+     * Appends a message, waiting up to the given time for budget to become available.
+     *
+     * @return {@code false} if the budget was still exhausted when the wait elapsed
+     */
+    boolean offer(SinkMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        long weight = weigh(message);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoomFor(weight)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            messages.addLast(message);
+            bytes += weight;
+            signalIfReady();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends messages from {@code from} onwards in order under a single lock acquisition,
+     * waiting up to the given time in total for budget to become available.
+     *
+     * @return how many messages were appended; fewer than requested if the wait elapsed
+     */
+    int offerAll(List<SinkMessage> batch, int from, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        int added = 0;
+        lock.lockInterruptibly();
+        try {
+            for (int i = from; i < batch.size(); i++) {
+                SinkMessage message = batch.get(i);
+                long weight = weigh(message);
+                while (!hasRoomFor(weight)) {
+                    if (nanos <= 0) {
+                        return added;
+                    }
+                    if (added > 0) {
+                        // Let the writers start on what is already queued
+                        signalIfReady();
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+                messages.addLast(message);
+                bytes += weight;
+                added++;
+            }
+            return added;
+        } finally {
+            if (added > 0) {
+                signalIfReady();
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code max} messages from the head of the queue into {@code target}.
+     */
+    int drainTo(List<SinkMessage> target, int max) {
+        lock.lock();
+        try {
+            return drainLocked(target, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until {@code max} messages are queued, the timeout elapses or the queue is
+     * closed, then moves up to {@code max} messages into {@code target}.
+     */
+    int drainTo(List<SinkMessage> target, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            readyThreshold = max;
+            while (messages.size() < max && nanos > 0 && !closed) {
+                nanos = batchReady.awaitNanos(nanos);
+            }
+            int drained = drainLocked(target, max);
+            // Another full batch may already be waiting for a second writer
+            signalIfReady();
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(List<SinkMessage> target, int max) {
+        int drained = 0;
+        SinkMessage message;
+        while (drained < max && (message = messages.pollFirst()) != null) {
+            target.add(message);
+            bytes -= weigh(message);
+            drained++;
+        }
+        if (drained > 0) {
+            notFull.signalAll();
+        }
+        return drained;
+    }
+
+    /**
+     * Puts a previously drained batch back at the head of the queue in its original order.
+     * The batch was already admitted once, so it bypasses the budget rather than blocking
+     * the writer thread that returns it.
+     */
+    void requeueFirst(List<SinkMessage> batch) {
+        lock.lock();
+        try {
+            ListIterator<SinkMessage> it = batch.listIterator(batch.size());
+            while (it.hasPrevious()) {
+                SinkMessage message = it.previous();
+                messages.addFirst(message);
+                bytes += weigh(message);
+            }
+            signalIfReady();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes every waiting writer so it drains what is left without waiting for a full batch.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalIfReady() {
+        if (messages.size() >= readyThreshold) {
+            batchReady.signal();
+        }
+    }
+
+    private boolean hasRoomFor(long weight) {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        return messages.size() < maxMessages && bytes + weight <= maxBytes;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
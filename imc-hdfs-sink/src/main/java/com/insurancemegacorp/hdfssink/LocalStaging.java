@@ -0,0 +1,130 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local disk area where writers build their Parquet files before they are uploaded to
+ * HDFS in one piece, so no DataNode pipeline is held open while a file fills up.
+ *
+ * The staging tree mirrors the output tree: {@code <outputPath>/<partition>/<name>} is
+ * staged as {@code <directory>/<partition>/<name>}. An open file carries the usual hidden
+ * in-progress name and is renamed to its final name once closed, so after a crash the
+ * sealed files are known to be complete and are uploaded, while partial ones are deleted
+ * (their records are still in the spool or unacknowledged at the broker).
+ *
+ * A sealed file is deleted only after its upload has been published on HDFS.
+ */
+final class LocalStaging {
+
+    private final FileSystem local;
+    private final Path root;
+    private final String outputPath;
+    private final Configuration conf;
+
+    LocalStaging(Configuration conf, String directory, String outputPath) throws IOException {
+        this.conf = conf;
+        // Raw, so staged files get no .crc siblings to upload or clean up
+        this.local = FileSystem.getLocal(conf).getRaw();
+        this.root = new Path(new File(directory).getAbsoluteFile().toURI());
+        // Normalized the way the writers' Path-built file names are
+        this.outputPath = new Path(outputPath).toString() + "/";
+        if (!local.mkdirs(root)) {
+            throw new IOException("Cannot create staging directory " + root);
+        }
+    }
+
+    FileSystem fileSystem() {
+        return local;
+    }
+
+    /**
+     * Where the writer of {@code filePath} writes while the file is open.
+     */
+    Path inProgressPathFor(String filePath) {
+        return localPath(PartitionWriter.inProgressPathFor(filePath));
+    }
+
+    /**
+     * Where the closed file of {@code filePath} waits for its upload.
+     */
+    Path sealedPathFor(String filePath) {
+        return localPath(filePath);
+    }
+
+    private Path localPath(String filePath) {
+        if (!filePath.startsWith(outputPath)) {
+            throw new IllegalArgumentException(filePath + " is not under " + outputPath);
+        }
+        return new Path(root, filePath.substring(outputPath.length()));
+    }
+
+    /**
+     * Marks a closed file as complete.
+     */
+    void seal(String filePath) throws IOException {
+        Path inProgress = inProgressPathFor(filePath);
+        if (!local.rename(inProgress, sealedPathFor(filePath))) {
+            throw new IOException("Failed to rename staged file " + inProgress);
+        }
+    }
+
+    /**
+     * Copies a sealed file to its in-progress name on HDFS, for the caller to publish.
+     *
+     * @return the bytes uploaded
+     */
+    long upload(FileSystem target, String filePath) throws IOException {
+        Path sealed = sealedPathFor(filePath);
+        target.copyFromLocalFile(false, true, sealed, new Path(PartitionWriter.inProgressPathFor(filePath)));
+        return local.getFileStatus(sealed).getLen();
+    }
+
+    /**
+     * Footer of a sealed file, for files recovered after a restart whose writer is gone.
+     */
+    ParquetMetadata footer(String filePath) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(sealedPathFor(filePath), conf))) {
+            return reader.getFooter();
+        }
+    }
+
+    /**
+     * Drops a staged file, sealed or not.
+     */
+    void delete(String filePath) throws IOException {
+        local.delete(inProgressPathFor(filePath), false);
+        local.delete(sealedPathFor(filePath), false);
+    }
+
+    /**
+     * Deletes files left partially written by a previous run and returns the output paths
+     * of the sealed files still waiting for their upload.
+     */
+    List<String> recover() throws IOException {
+        List<String> sealed = new ArrayList<>();
+        String rootPath = root.toUri().getPath();
+        RemoteIterator<LocatedFileStatus> files = local.listFiles(root, true);
+        while (files.hasNext()) {
+            Path file = files.next().getPath();
+            if (file.getName().endsWith(PartitionWriter.IN_PROGRESS_SUFFIX)) {
+                local.delete(file, false);
+            } else {
+                String relative = file.toUri().getPath().substring(rootPath.length());
+                sealed.add(outputPath + (relative.startsWith("/") ? relative.substring(1) : relative));
+            }
+        }
+        return sealed;
+    }
+}
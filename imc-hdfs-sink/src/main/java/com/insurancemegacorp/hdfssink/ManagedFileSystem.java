@@ -0,0 +1,225 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one {@link FileSystem} client the sink writes through.
+ *
+ * It is opened with {@link FileSystem#newInstance}, so it is owned here rather than shared
+ * through Hadoop's JVM-wide cache: closing it cannot pull the client out from under other
+ * code, and nothing else can close it under the sink. The client is opened lazily, kept
+ * for the life of the sink and only replaced after several health checks in a row have
+ * failed. A single slow probe says little about the streams open on the client, so it
+ * never costs them.
+ *
+ * Code that keeps a stream open takes a {@link Lease}. A replaced client stays open until
+ * its last lease is closed, so open files are committed, or fail on their own I/O, rather
+ * than being cut off by the health check.
+ *
+ * With Kerberos enabled the health check also renews the login from the keytab before the
+ * ticket expires, instead of each caller logging in again.
+ */
+final class ManagedFileSystem implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ManagedFileSystem.class);
+
+    @FunctionalInterface
+    interface Opener {
+        FileSystem open() throws IOException;
+    }
+
+    /**
+     * A client held open for as long as the holder needs it, even if it is replaced meanwhile.
+     */
+    final class Lease implements AutoCloseable {
+
+        private final FileSystem fileSystem;
+        private boolean released;
+
+        private Lease(FileSystem fileSystem) {
+            this.fileSystem = fileSystem;
+        }
+
+        FileSystem fileSystem() {
+            return fileSystem;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ManagedFileSystem.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(fileSystem);
+        }
+    }
+
+    private final Configuration conf;
+    private final Opener opener;
+    private final int failureThreshold;
+    private final Counter healthCheckFailures;
+    private final Counter recreated;
+    // Open leases per client, the current one and any replaced ones still in use
+    private final Map<FileSystem, Integer> leases = new IdentityHashMap<>();
+    private FileSystem fs;
+    private int consecutiveFailures;
+    private boolean closed;
+
+    ManagedFileSystem(URI uri, Configuration conf, int failureThreshold, MeterRegistry meterRegistry) {
+        this(conf, () -> FileSystem.newInstance(uri, conf), failureThreshold, meterRegistry);
+    }
+
+    ManagedFileSystem(Configuration conf, Opener opener, int failureThreshold, MeterRegistry meterRegistry) {
+        this.conf = conf;
+        this.opener = opener;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.healthCheckFailures = meterRegistry.counter("hdfs_filesystem_health_check_failures_total");
+        this.recreated = meterRegistry.counter("hdfs_filesystem_recreated_total");
+    }
+
+    /**
+     * The Hadoop settings the client was opened with.
+     */
+    Configuration configuration() {
+        return conf;
+    }
+
+    /**
+     * The current client, opening one if there is none yet or the last one was replaced.
+     * Only for calls that finish before returning; a stream kept open needs a {@link #lease()}.
+     */
+    synchronized FileSystem get() throws IOException {
+        if (closed) {
+            throw new IOException("File system client is closed");
+        }
+        if (fs == null) {
+            fs = opener.open();
+        }
+        return fs;
+    }
+
+    /**
+     * The current client, kept open until the lease is closed.
+     */
+    synchronized Lease lease() throws IOException {
+        FileSystem current = get();
+        leases.merge(current, 1, Integer::sum);
+        return new Lease(current);
+    }
+
+    /**
+     * Probes the NameNode with a status call on the root directory. Once the probe has failed
+     * {@code failureThreshold} times in a row the client is dropped so the next {@link #get()}
+     * opens a fresh one; it is closed as soon as no lease holds it.
+     *
+     * @return whether the probe succeeded; true as well when no client is open yet
+     */
+    boolean checkHealth() {
+        FileSystem current;
+        synchronized (this) {
+            current = fs;
+        }
+        if (current == null) {
+            return true;
+        }
+        try {
+            if (UserGroupInformation.isSecurityEnabled()) {
+                UserGroupInformation.getLoginUser().checkTGTAndReloginFromKeytab();
+            }
+            current.getFileStatus(new Path("/"));
+            synchronized (this) {
+                consecutiveFailures = 0;
+            }
+            return true;
+        } catch (Exception e) {
+            healthCheckFailures.increment();
+            int failures;
+            synchronized (this) {
+                failures = ++consecutiveFailures;
+            }
+            if (failures < failureThreshold) {
+                log.warn("HDFS client failed its health check ({} of {} before it is replaced): {}",
+                        failures, failureThreshold, e.getMessage());
+            } else {
+                log.warn("HDFS client failed {} health checks in a row; opening a new one: {}", failures, e.getMessage());
+                discard(current);
+            }
+            return false;
+        }
+    }
+
+    private void discard(FileSystem failed) {
+        synchronized (this) {
+            // Another caller may already have replaced it
+            if (fs != failed) {
+                return;
+            }
+            fs = null;
+            consecutiveFailures = 0;
+            recreated.increment();
+            if (leases.containsKey(failed)) {
+                log.info("Keeping the replaced HDFS client open for {} open files", leases.get(failed));
+                return;
+            }
+        }
+        closeQuietly(failed);
+    }
+
+    private void release(FileSystem leased) {
+        synchronized (this) {
+            Integer open = leases.merge(leased, -1, Integer::sum);
+            if (open != null && open > 0) {
+                return;
+            }
+            leases.remove(leased);
+            // The current client stays open for the next caller
+            if (leased == fs || closed) {
+                return;
+            }
+        }
+        closeQuietly(leased);
+    }
+
+    @Override
+    public void close() {
+        List<FileSystem> open = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            if (fs != null) {
+                open.add(fs);
+            }
+            for (FileSystem leased : leases.keySet()) {
+                if (leased != fs) {
+                    open.add(leased);
+                }
+            }
+            fs = null;
+            leases.clear();
+        }
+        open.forEach(ManagedFileSystem::closeQuietly);
+    }
+
+    private static void closeQuietly(FileSystem fs) {
+        try {
+            fs.close();
+        } catch (IOException e) {
+            log.warn("Failed to close HDFS client: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-partition index of the files the sink has committed, so a scan can be planned from
+ * one small read instead of listing the partition and opening every footer.
+ *
+ * Each sink instance owns {@code _manifest-<instanceId>.jsonl} in every partition it writes
+ * to, one JSON object per committed file with its row count, size and the min/max of
+ * {@code event_time}, {@code driver_id} and {@code vehicle_id} taken from the footer. The
+ * leading underscore hides it from Hive, Spark and other FileInputFormat based readers.
+ *
+ * HDFS cannot append to a file and replace it atomically, so an update writes the whole
+ * manifest to a hidden temporary file, deletes the old manifest and renames the new one
+ * into place. {@link #read} falls back to the temporary file when it catches that window.
+ * That costs a read, a create, a delete and a rename, so committed files are queued per
+ * partition and {@link #flush} rewrites each partition's manifest once for all of them.
+ * The manifest trails the committed files by up to one flush, and a crash in between
+ * leaves those files out of the index until they are compacted; readers that need every
+ * row should still list the partition.
+ */
+public final class PartitionManifest {
+
+    static final String PREFIX = "_manifest-";
+    static final String SUFFIX = ".jsonl";
+    private static final String TEMP_PREFIX = "." + PREFIX;
+    private static final String TEMP_SUFFIX = SUFFIX + ".tmp";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    /**
+     * One committed file. Min/max values are null when the file has no non-null value for
+     * that column.
+     */
+    public record Entry(String file, long rows, long bytes,
+                        Long minEventTime, Long maxEventTime,
+                        Long minDriverId, Long maxDriverId,
+                        Long minVehicleId, Long maxVehicleId) {
+
+        /**
+         * False only when the statistics prove the file has no row for the driver.
+         */
+        public boolean mayContainDriver(long driverId) {
+            return mayContain(minDriverId, maxDriverId, driverId, driverId);
+        }
+
+        public boolean mayContainVehicle(long vehicleId) {
+            return mayContain(minVehicleId, maxVehicleId, vehicleId, vehicleId);
+        }
+
+        /**
+         * False only when no row of the file has an event time in {@code [fromMillis, toMillis]}.
+         */
+        public boolean overlapsEventTime(long fromMillis, long toMillis) {
+            return mayContain(minEventTime, maxEventTime, fromMillis, toMillis);
+        }
+
+        private static boolean mayContain(Long min, Long max, long from, long to) {
+            return min == null || max == null || (min <= to && max >= from);
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final String instanceId;
+    // Committed files not yet in the manifest, by partition directory
+    private final Map<Path, Map<String, Entry>> pending = new LinkedHashMap<>();
+
+    PartitionManifest(MeterRegistry meterRegistry, String instanceId) {
+        this.meterRegistry = meterRegistry;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Builds the entry for a committed file from its footer.
+     */
+    static Entry entryFor(String fileName, long bytes, ParquetMetadata footer) {
+        long rows = 0;
+        Map<String, long[]> ranges = new HashMap<>();
+        for (BlockMetaData block : footer.getBlocks()) {
+            rows += block.getRowCount();
+            for (ColumnChunkMetaData column : block.getColumns()) {
+                String name = column.getPath().toDotString();
+                if (!name.equals("event_time") && !name.equals("driver_id") && !name.equals("vehicle_id")) {
+                    continue;
+                }
+                Statistics<?> statistics = column.getStatistics();
+                if (statistics == null || !statistics.hasNonNullValue()) {
+                    continue;
+                }
+                long min = ((Number) statistics.genericGetMin()).longValue();
+                long max = ((Number) statistics.genericGetMax()).longValue();
+                ranges.merge(name, new long[] {min, max},
+                        (a, b) -> new long[] {Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+            }
+        }
+        return new Entry(fileName, rows, bytes,
+                min(ranges, "event_time"), max(ranges, "event_time"),
+                min(ranges, "driver_id"), max(ranges, "driver_id"),
+                min(ranges, "vehicle_id"), max(ranges, "vehicle_id"));
+    }
+
+    private static Long min(Map<String, long[]> ranges, String column) {
+        long[] range = ranges.get(column);
+        return range == null ? null : range[0];
+    }
+
+    private static Long max(Map<String, long[]> ranges, String column) {
+        long[] range = ranges.get(column);
+        return range == null ? null : range[1];
+    }
+
+    /**
+     * Queues a committed file for this instance's manifest of its partition; the next
+     * {@link #flush} writes it.
+     */
+    synchronized void add(Path directory, Entry entry) {
+        pending.computeIfAbsent(directory, d -> new LinkedHashMap<>()).put(entry.file(), entry);
+    }
+
+    /**
+     * Writes the queued files, one manifest update per partition. A partition that fails
+     * keeps its files queued for the next flush.
+     *
+     * @throws IOException the first failure, once every partition has been tried
+     */
+    synchronized void flush(FileSystem fs) throws IOException {
+        IOException failure = null;
+        for (Path directory : List.copyOf(pending.keySet())) {
+            try {
+                update(fs, directory, List.of(), List.of());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Drops the named files from this instance's manifest and adds {@code added} in their
+     * place, together with any files of the partition still queued. Entries are keyed by
+     * file name, so repeating an update is harmless.
+     */
+    synchronized void replace(FileSystem fs, Path directory, Collection<String> removed, Entry added) throws IOException {
+        update(fs, directory, removed, List.of(added));
+    }
+
+    private void update(FileSystem fs, Path directory, Collection<String> removed, List<Entry> added) throws IOException {
+        Path manifest = new Path(directory, PREFIX + instanceId + SUFFIX);
+        Path temp = new Path(directory, TEMP_PREFIX + instanceId + TEMP_SUFFIX);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        List<Entry> existing = readFile(fs, manifest, false);
+        if (existing == null) {
+            // An earlier update may have stopped between delete and rename
+            existing = readFile(fs, temp, true);
+        }
+        if (existing != null) {
+            existing.forEach(entry -> entries.put(entry.file(), entry));
+        }
+        entries.putAll(pending.getOrDefault(directory, Map.of()));
+        removed.forEach(entries::remove);
+        added.forEach(entry -> entries.put(entry.file(), entry));
+
+        countNamenodeRpc("create");
+        try (FSDataOutputStream out = fs.create(temp, true)) {
+            for (Entry entry : entries.values()) {
+                out.write(MAPPER.writeValueAsBytes(entry));
+                out.write('\n');
+            }
+        }
+        countNamenodeRpc("delete");
+        fs.delete(manifest, false);
+        countNamenodeRpc("rename");
+        if (!fs.rename(temp, manifest)) {
+            throw new IOException("Failed to rename " + temp + " to " + manifest);
+        }
+        pending.remove(directory);
+        meterRegistry.counter("hdfs_manifest_updates_total").increment();
+    }
+
+    /**
+     * Reads the entries of every instance's manifest in a partition directory.
+     */
+    public static List<Entry> read(FileSystem fs, Path directory) throws IOException {
+        Set<String> instances = new LinkedHashSet<>();
+        for (FileStatus status : fs.listStatus(directory)) {
+            String name = status.getPath().getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                instances.add(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } else if (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX)) {
+                instances.add(name.substring(TEMP_PREFIX.length(), name.length() - TEMP_SUFFIX.length()));
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (String instance : instances) {
+            List<Entry> manifest = readFile(fs, new Path(directory, PREFIX + instance + SUFFIX), false);
+            if (manifest == null) {
+                // Caught between delete and rename, or the first manifest is still being written,
+                // in which case its last line may be cut short
+                manifest = readFile(fs, new Path(directory, TEMP_PREFIX + instance + TEMP_SUFFIX), true);
+            }
+            if (manifest != null) {
+                entries.addAll(manifest);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Entries of one manifest file, or null if it does not exist.
+     */
+    private static List<Entry> readFile(FileSystem fs, Path manifest, boolean skipTruncated) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        FSDataInputStream in;
+        try {
+            in = fs.open(manifest);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    entries.add(MAPPER.readValue(line, Entry.class));
+                } catch (JsonProcessingException e) {
+                    if (!skipTruncated) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void countNamenodeRpc(String operation) {
+        meterRegistry.counter("hdfs_namenode_rpc_total", "op", operation).increment();
+    }
+}
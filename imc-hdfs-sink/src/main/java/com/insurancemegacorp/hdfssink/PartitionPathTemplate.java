@@ -0,0 +1,244 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@code hdfs.partitionPath} compiled once into a list of literals, date tokens and field
+ * references.
+ *
+ * The template keeps the SpEL-like syntax used in stream definitions, e.g.
+ * {@code 'date=' + T(java.time.LocalDate).now().toString() + '/driver_id=' + payload.driver_id}.
+ * Any top-level {@code payload.<field>} may be referenced; the parser captures the raw
+ * text of those fields into the {@link TelemetryRecord} so evaluation is a simple append
+ * loop with no regex and no re-parsing. Missing or null fields evaluate to {@code unknown}.
+ *
+ * Compiled for event time, the date expressions take the date of the record's
+ * {@code event_time} instead of today's, so a record lands in the day it was recorded
+ * however late it arrives; records without an event time fall back to today.
+ */
+final class PartitionPathTemplate {
+
+    static final String DEFAULT_TEMPLATE = "'date=' + T(java.time.LocalDate).now().toString()";
+
+    private static final Set<String> DATE_EXPRESSIONS = Set.of(
+            "T(java.time.LocalDate).now().toString()",
+            "T(java.time.LocalDate).now()");
+    private static final String PAYLOAD_PREFIX = "payload.";
+    private static final String MISSING_VALUE = "unknown";
+    private static final String DRIVER_ID_PREFIX = "DRIVER-";
+    private static final int EVENT_TIME = TelemetrySchema.PLAN.column("event_time").fieldIndex();
+
+    interface Part {
+        void appendTo(StringBuilder path, TelemetryRecord record);
+    }
+
+    record Literal(String text) implements Part {
+        @Override
+        public void appendTo(StringBuilder path, TelemetryRecord record) {
+            path.append(text);
+        }
+    }
+
+    record CurrentDate(TodayCache today) implements Part {
+        @Override
+        public void appendTo(StringBuilder path, TelemetryRecord record) {
+            path.append(today.get());
+        }
+    }
+
+    record EventDate(EventDayCache days, TodayCache today) implements Part {
+        @Override
+        public void appendTo(StringBuilder path, TelemetryRecord record) {
+            path.append(record.isPresent(EVENT_TIME) ? days.get(record.getLong(EVENT_TIME)).date() : today.get());
+        }
+    }
+
+    record FieldReference(String field, int captureIndex) implements Part {
+        @Override
+        public void appendTo(StringBuilder path, TelemetryRecord record) {
+            String value = record.getCaptured(captureIndex);
+            if (value == null) {
+                path.append(MISSING_VALUE);
+            } else if ("driver_id".equals(field) && value.startsWith(DRIVER_ID_PREFIX)) {
+                // Clean up driver_id by removing DRIVER- prefix if present
+                path.append(value, DRIVER_ID_PREFIX.length(), value.length());
+            } else {
+                path.append(value);
+            }
+        }
+    }
+
+    private final String source;
+    private final Part[] parts;
+    private final List<String> fieldNames;
+    private final EventDayCache eventDays;
+
+    private PartitionPathTemplate(String source, List<Part> parts, List<String> fieldNames, EventDayCache eventDays) {
+        this.source = source;
+        this.parts = parts.toArray(new Part[0]);
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.eventDays = eventDays;
+    }
+
+    static PartitionPathTemplate compile(String template) {
+        return compile(template, false);
+    }
+
+    static PartitionPathTemplate compile(String template, boolean eventTime) {
+        String source = template == null || template.isBlank() ? DEFAULT_TEMPLATE : template.trim();
+        TodayCache today = new TodayCache();
+        EventDayCache eventDays = eventTime ? new EventDayCache() : null;
+        Map<String, Integer> captureIndexes = new LinkedHashMap<>();
+        List<Part> parts = new ArrayList<>();
+
+        for (String term : splitTerms(source)) {
+            if (term.length() >= 2 && term.startsWith("'") && term.endsWith("'")) {
+                parts.add(new Literal(term.substring(1, term.length() - 1).replace("''", "'")));
+            } else if (DATE_EXPRESSIONS.contains(term)) {
+                parts.add(eventDays != null ? new EventDate(eventDays, today) : new CurrentDate(today));
+            } else if (term.startsWith(PAYLOAD_PREFIX) && term.length() > PAYLOAD_PREFIX.length()) {
+                String field = term.substring(PAYLOAD_PREFIX.length());
+                int index = captureIndexes.computeIfAbsent(field, f -> captureIndexes.size());
+                parts.add(new FieldReference(field, index));
+            } else {
+                // Unrecognised expressions were always passed through verbatim
+                parts.add(new Literal(term));
+            }
+        }
+        boolean datedByEvent = parts.stream().anyMatch(part -> part instanceof EventDate);
+        return new PartitionPathTemplate(source, mergeLiterals(parts), new ArrayList<>(captureIndexes.keySet()),
+                datedByEvent ? eventDays : null);
+    }
+
+    /**
+     * Splits on {@code +} operators outside quoted literals.
+     */
+    private static List<String> splitTerms(String source) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            if (c == '+' && !quoted) {
+                addTerm(terms, term);
+            } else {
+                term.append(c);
+            }
+        }
+        addTerm(terms, term);
+        return terms;
+    }
+
+    private static void addTerm(List<String> terms, StringBuilder term) {
+        String trimmed = term.toString().trim();
+        if (!trimmed.isEmpty()) {
+            terms.add(trimmed);
+        }
+        term.setLength(0);
+    }
+
+    private static List<Part> mergeLiterals(List<Part> parts) {
+        List<Part> merged = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            int last = merged.size() - 1;
+            if (part instanceof Literal next && last >= 0 && merged.get(last) instanceof Literal previous) {
+                merged.set(last, new Literal(previous.text() + next.text()));
+            } else {
+                merged.add(part);
+            }
+        }
+        return merged;
+    }
+
+    String evaluate(TelemetryRecord record) {
+        StringBuilder path = new StringBuilder(64);
+        for (Part part : parts) {
+            part.appendTo(path, record);
+        }
+        return path.toString();
+    }
+
+    /**
+     * When the partition the record maps to is complete: the end of the record's event day
+     * if the path is dated by event time, otherwise never ({@link Long#MAX_VALUE}).
+     */
+    long partitionEndMillis(TelemetryRecord record) {
+        if (eventDays == null) {
+            return Long.MAX_VALUE;
+        }
+        long eventTime = record.isPresent(EVENT_TIME) ? record.getLong(EVENT_TIME) : System.currentTimeMillis();
+        return eventDays.get(eventTime).endMillis();
+    }
+
+    /**
+     * Payload fields referenced by the template, in capture-slot order.
+     */
+    List<String> fieldNames() {
+        return fieldNames;
+    }
+
+    List<Part> parts() {
+        return List.of(parts);
+    }
+
+    @Override
+    public String toString() {
+        return source + " -> " + parts();
+    }
+
+    /**
+     * Today's ISO date in the system zone, recomputed only when the day changes.
+     */
+    static final class TodayCache {
+        private record Day(String date, long validUntilMillis) {
+        }
+
+        private volatile Day day = new Day("", Long.MIN_VALUE);
+
+        String get() {
+            Day current = day;
+            if (System.currentTimeMillis() >= current.validUntilMillis()) {
+                LocalDate today = LocalDate.now();
+                long nextMidnight = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                current = new Day(today.toString(), nextMidnight);
+                day = current;
+            }
+            return current.date();
+        }
+    }
+
+    /**
+     * ISO date of an event time in the system zone, the same zone today's date uses. The
+     * last day looked up is kept, since consecutive records almost always share it.
+     */
+    static final class EventDayCache {
+        record Day(String date, long startMillis, long endMillis) {
+        }
+
+        private volatile Day day = new Day("", Long.MAX_VALUE, Long.MIN_VALUE);
+
+        Day get(long epochMillis) {
+            Day current = day;
+            if (epochMillis < current.startMillis() || epochMillis >= current.endMillis()) {
+                ZoneId zone = ZoneId.systemDefault();
+                LocalDate date = Instant.ofEpochMilli(epochMillis).atZone(zone).toLocalDate();
+                current = new Day(date.toString(),
+                        date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                        date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+                day = current;
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An open Parquet file for one partition, opened by one writer lane, together with the
+ * bookkeeping needed to decide when to roll it and what to release once it is closed.
+ *
+ * Data is written to a hidden in-progress file next to {@link #filePath()} and only
+ * renamed to that committed name after a successful close, so readers never see a
+ * partial file.
+ *
+ * With a {@link RunBufferPool}, records are staged column by column in a
+ * {@link ColumnarRunBuffer} taken from it and written in (driver_id, event_time) order one
+ * run at a time; the last partial run is written on close, which also returns the buffer.
+ *
+ * With a {@link TrackedOutputFile} the writer can tell how much of its data is still
+ * buffered in memory, which the {@link WriterMemoryBudget} uses to pick writers to roll.
+ *
+ * In manual-ack mode the writer also holds the delivery tags of the messages it has
+ * written, which are acknowledged only after the file is committed.
+ *
+ * Not thread-safe: lanes write to it and check it for rolling holding its lock, and after
+ * it has been retired, only the commit thread it is handed to touches it.
+ */
+final class PartitionWriter {
+
+    static final String IN_PROGRESS_SUFFIX = ".inprogress";
+
+    private final String writerId;
+    private final String partition;
+    private final String filePath;
+    private final String inProgressPath;
+    private final ParquetWriter<TelemetryRecord> writer;
+    private final RunBufferPool sortBuffers;
+    private ColumnarRunBuffer sortBuffer;
+    private final TrackedOutputFile output;
+    private final long startTime;
+    private final Map<Long, Integer> spoolSegments = new HashMap<>();
+    private final Map<DeliveryAcks, DeliveryAcks.Held> deliveries = new HashMap<>();
+    private long lastWriteTime;
+    private int messageCount;
+    private boolean closed;
+    private boolean failed;
+    // Set under the writer's lock once it is handed over for commit
+    private volatile boolean retired;
+    // Published by the writing lane, read by the memory budget from other threads
+    private volatile long bufferedBytes;
+    private long partitionEndMillis = Long.MAX_VALUE;
+
+    PartitionWriter(String writerId, String partition, String filePath, ParquetWriter<TelemetryRecord> writer) {
+        this(writerId, partition, filePath, writer, 0);
+    }
+
+    PartitionWriter(String writerId, String partition, String filePath, ParquetWriter<TelemetryRecord> writer,
+                    int sortRunRecords) {
+        this(writerId, partition, filePath, writer, sortRunRecords > 0 ? new RunBufferPool(sortRunRecords) : null, null);
+    }
+
+    PartitionWriter(String writerId, String partition, String filePath, ParquetWriter<TelemetryRecord> writer,
+                    RunBufferPool sortBuffers, TrackedOutputFile output) {
+        this.writerId = writerId;
+        this.partition = partition;
+        this.filePath = filePath;
+        this.inProgressPath = inProgressPathFor(filePath);
+        this.writer = writer;
+        this.sortBuffers = sortBuffers;
+        this.sortBuffer = sortBuffers != null ? sortBuffers.take() : null;
+        this.output = output;
+        this.startTime = System.currentTimeMillis();
+        this.lastWriteTime = startTime;
+    }
+
+    /**
+     * {@code dir/name.parquet} becomes {@code dir/.name.parquet.inprogress}; the leading dot
+     * hides it from Hive, Spark and other FileInputFormat based readers.
+     */
+    static String inProgressPathFor(String filePath) {
+        int slash = filePath.lastIndexOf('/');
+        return filePath.substring(0, slash + 1) + "." + filePath.substring(slash + 1) + IN_PROGRESS_SUFFIX;
+    }
+
+    void write(TelemetryRecord record, SinkMessage message) throws IOException {
+        write(record, message.spoolSegment(), message);
+    }
+
+    void write(TelemetryRecord record, long spoolSegment) throws IOException {
+        write(record, spoolSegment, null);
+    }
+
+    /**
+     * An {@link IOException} comes from flushing rows Parquet (or the sort run) has already
+     * taken, this record included, so the record still belongs to this file. Parquet
+     * abandons the file at that point, and {@link #close()} then fails so the file's
+     * messages are handed back instead of committed.
+     */
+    private void write(TelemetryRecord record, long spoolSegment, SinkMessage message) throws IOException {
+        try {
+            if (sortBuffer == null) {
+                writer.write(record);
+            } else if (sortBuffer.add(record)) {
+                sortBuffer.flushTo(writer);
+            }
+        } catch (IOException e) {
+            failed = true;
+            accept(spoolSegment, message);
+            throw e;
+        }
+        accept(spoolSegment, message);
+    }
+
+    private void accept(long spoolSegment, SinkMessage message) {
+        if (spoolSegment != WriteAheadSpool.NO_SEGMENT) {
+            spoolSegments.merge(spoolSegment, 1, Integer::sum);
+        }
+        if (message != null && message.acks() != null) {
+            deliveries.computeIfAbsent(message.acks(), acks -> new DeliveryAcks.Held()).add(message.deliveryTag());
+        }
+        messageCount++;
+        lastWriteTime = System.currentTimeMillis();
+    }
+
+    void close() throws IOException {
+        closed = true;
+        try {
+            if (failed) {
+                throw new IOException("Write to " + filePath + " failed; the file has no footer");
+            }
+            if (sortBuffer != null && sortBuffer.size() > 0) {
+                sortBuffer.flushTo(writer);
+            }
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                if (sortBuffer != null) {
+                    sortBuffers.release(sortBuffer);
+                    sortBuffer = null;
+                }
+                if (output != null) {
+                    output.release();
+                }
+                bufferedBytes = 0;
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Marks the writer as handed over for commit; lanes then open a new file for the
+     * partition instead of writing to this one. Called holding the writer's lock.
+     */
+    void retire() {
+        retired = true;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    String writerId() {
+        return writerId;
+    }
+
+    String partition() {
+        return partition;
+    }
+
+    /**
+     * Committed file name, visible once the file has been closed and renamed.
+     */
+    String filePath() {
+        return filePath;
+    }
+
+    String inProgressPath() {
+        return inProgressPath;
+    }
+
+    /**
+     * End of the event day the partition covers; once the watermark passes it no more
+     * data is expected and the file can be committed. {@link Long#MAX_VALUE} when
+     * partitions are not dated by event time.
+     */
+    long partitionEndMillis() {
+        return partitionEndMillis;
+    }
+
+    void setPartitionEndMillis(long partitionEndMillis) {
+        this.partitionEndMillis = partitionEndMillis;
+    }
+
+    long startTime() {
+        return startTime;
+    }
+
+    long lastWriteTime() {
+        return lastWriteTime;
+    }
+
+    int messageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Bytes flushed to the file so far plus the row group still buffered in memory, as
+     * tracked by the Parquet writer itself; no NameNode call is involved. Records still
+     * waiting in a sort run are not counted.
+     */
+    long dataSize() {
+        return writer == null ? 0 : writer.getDataSize();
+    }
+
+    /**
+     * Length of the file, footer included, once it has been closed; taken from the
+     * stream, so no NameNode call is involved.
+     */
+    long fileLength() throws IOException {
+        return output != null ? output.position() : dataSize();
+    }
+
+    /**
+     * Recomputes the heap held by this writer: the row group Parquet has not yet written
+     * to the file, plus the sort run arrays. Called holding the writer's lock.
+     */
+    long refreshBufferedBytes() throws IOException {
+        long buffered = sortBuffer != null ? sortBuffer.retainedBytes() : 0;
+        if (output != null && !closed) {
+            buffered += Math.max(0, dataSize() - output.position());
+        }
+        bufferedBytes = buffered;
+        return buffered;
+    }
+
+    /**
+     * Buffered bytes as of the last {@link #refreshBufferedBytes()}.
+     */
+    long bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Footer of the closed file, with the row groups and their column statistics.
+     */
+    ParquetMetadata footer() {
+        return writer.getFooter();
+    }
+
+    Map<Long, Integer> spoolSegments() {
+        return spoolSegments;
+    }
+
+    /**
+     * Delivery tags of the written messages, per channel; empty unless acks are manual.
+     */
+    Map<DeliveryAcks, DeliveryAcks.Held> deliveries() {
+        return deliveries;
+    }
+}
@@ -0,0 +1,66 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sort run buffers of the sink's writers. A writer hands its {@link ColumnarRunBuffer} back
+ * once its file is closed and the next writer takes it over, so rolling a file,
+ * committing it for visibility or re-opening an evicted partition does not allocate a new
+ * set of column arrays. Only a few buffers are kept idle, enough for the writers rolled
+ * at about the same time; the rest are dropped, so a burst across many partitions
+ * does not leave its buffers on the heap once the writers are gone.
+ *
+ * Thread-safe: lanes take buffers while commit threads return them.
+ */
+final class RunBufferPool {
+
+    static final int DEFAULT_MAX_IDLE = 4;
+
+    private final int runRecords;
+    private final int maxIdle;
+    private final Queue<ColumnarRunBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    RunBufferPool(int runRecords) {
+        this(runRecords, DEFAULT_MAX_IDLE);
+    }
+
+    RunBufferPool(int runRecords, int maxIdle) {
+        if (runRecords <= 0) {
+            throw new IllegalArgumentException("Sort run size must be positive");
+        }
+        this.runRecords = runRecords;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * An empty buffer, reused if one has been returned.
+     */
+    ColumnarRunBuffer take() {
+        ColumnarRunBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return new ColumnarRunBuffer(runRecords);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Keeps the buffer for the next writer, or leaves it to the garbage collector when
+     * {@code maxIdle} buffers are already waiting.
+     */
+    void release(ColumnarRunBuffer buffer) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    int idle() {
+        return idleCount.get();
+    }
+}
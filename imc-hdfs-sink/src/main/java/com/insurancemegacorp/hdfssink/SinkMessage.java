@@ -0,0 +1,31 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message buffered by the sink, together with the write-ahead spool segment that holds
+ * its durable copy ({@link WriteAheadSpool#NO_SEGMENT} when spooling is disabled) and, in
+ * manual-ack mode, the channel and delivery tag to acknowledge once it is committed
+ * ({@code acks} is null when the binder acks on receipt).
+ *
+ * The payload is kept as the UTF-8 bytes received from the broker and parsed straight
+ * from them, so no {@code String} is built for a message on the byte[] ingestion path.
+ */
+record SinkMessage(byte[] payload, long spoolSegment, DeliveryAcks acks, long deliveryTag) {
+
+    SinkMessage(byte[] payload, long spoolSegment) {
+        this(payload, spoolSegment, null, 0);
+    }
+
+    static SinkMessage unspooled(byte[] payload) {
+        return new SinkMessage(payload, WriteAheadSpool.NO_SEGMENT);
+    }
+
+    static SinkMessage unspooled(String payload) {
+        return unspooled(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String text() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,317 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the small Parquet files this instance committed into a partition into
+ * right-sized files, so under-threshold files no longer have to be deleted.
+ *
+ * Row groups are copied as-is with {@link ParquetFileWriter#appendFile}, so no record is
+ * decoded or re-encoded. Only files carrying this instance's id are touched, which lets
+ * several sink instances share an output directory. Every merge is journaled in a hidden
+ * marker listing its inputs: the merged file is renamed into place first and the inputs
+ * are deleted afterwards, and a merge interrupted by a crash is rolled forward or back
+ * the next time its partition is compacted.
+ *
+ * When a {@link PartitionManifest} is given, the merged file replaces its inputs in the
+ * manifest before the inputs are deleted, including when a merge is rolled forward.
+ */
+final class SmallFileCompactor {
+    private static final Logger log = LoggerFactory.getLogger(SmallFileCompactor.class);
+
+    private static final String MARKER_PREFIX = ".compaction-";
+    private static final String MARKER_SUFFIX = ".pending";
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    record Result(int filesMerged, long bytesRewritten, int filesWritten) {
+        static final Result NONE = new Result(0, 0, 0);
+
+        Result plus(Result other) {
+            return new Result(filesMerged + other.filesMerged, bytesRewritten + other.bytesRewritten,
+                    filesWritten + other.filesWritten);
+        }
+    }
+
+    private final ManagedFileSystem fileSystem;
+    private final Configuration conf;
+    private final short replication;
+    private final MeterRegistry meterRegistry;
+    private final String instanceId;
+    private final long smallFileBytes;
+    private final long targetFileBytes;
+    private final int minFiles;
+    private final PartitionManifest manifest;
+    private final Set<String> pendingPartitions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+
+    SmallFileCompactor(ManagedFileSystem fileSystem, short replication, MeterRegistry meterRegistry, String instanceId,
+                       long smallFileBytes, long targetFileBytes, int minFiles, PartitionManifest manifest) {
+        this.fileSystem = fileSystem;
+        this.conf = fileSystem.configuration();
+        this.replication = replication;
+        this.meterRegistry = meterRegistry;
+        this.instanceId = instanceId;
+        this.smallFileBytes = smallFileBytes;
+        this.targetFileBytes = targetFileBytes;
+        this.minFiles = Math.max(2, minFiles);
+        this.manifest = manifest;
+    }
+
+    /**
+     * Whether a file of this length is merged by the compactor. The sink only queues a
+     * partition for a file this test accepts, so every queued scan has something to merge.
+     */
+    boolean isSmall(long fileBytes) {
+        return fileBytes < smallFileBytes;
+    }
+
+    /**
+     * Records that a small file was committed into {@code directory}; it is compacted on
+     * the next {@link #compactPending()} run.
+     */
+    void markPartition(String directory) {
+        pendingPartitions.add(directory);
+    }
+
+    int pendingPartitions() {
+        return pendingPartitions.size();
+    }
+
+    void compactPending() {
+        for (String directory : List.copyOf(pendingPartitions)) {
+            pendingPartitions.remove(directory);
+            try {
+                Result result = compact(new Path(directory));
+                if (result.filesWritten() > 0) {
+                    log.info("Compacted {} small files ({} bytes) into {} files in {}",
+                            result.filesMerged(), result.bytesRewritten(), result.filesWritten(), directory);
+                }
+            } catch (Exception e) {
+                log.error("Failed to compact small files in {}", directory, e);
+                meterRegistry.counter("hdfs_compaction_failures_total").increment();
+                // Retry on the next run; the journal makes a half-finished merge safe to revisit
+                pendingPartitions.add(directory);
+            }
+        }
+    }
+
+    synchronized Result compact(Path directory) throws IOException {
+        try (ManagedFileSystem.Lease client = fileSystem.lease()) {
+            return compact(client.fileSystem(), directory);
+        }
+    }
+
+    private Result compact(FileSystem fs, Path directory) throws IOException {
+        FileStatus[] listing = listStatus(fs, directory);
+        if (recoverInterrupted(fs, listing)) {
+            listing = listStatus(fs, directory);
+        }
+
+        List<FileStatus> candidates = Arrays.stream(listing)
+                .filter(this::isSmallOwnFile)
+                .sorted(Comparator.comparing(status -> status.getPath().getName()))
+                .toList();
+
+        Result total = Result.NONE;
+        List<FileStatus> group = new ArrayList<>();
+        long groupBytes = 0;
+        for (FileStatus candidate : candidates) {
+            if (!group.isEmpty() && groupBytes + candidate.getLen() > targetFileBytes) {
+                total = total.plus(merge(fs, directory, group));
+                group = new ArrayList<>();
+                groupBytes = 0;
+            }
+            group.add(candidate);
+            groupBytes += candidate.getLen();
+        }
+        return total.plus(merge(fs, directory, group));
+    }
+
+    private boolean isSmallOwnFile(FileStatus status) {
+        String name = status.getPath().getName();
+        return status.isFile()
+                && name.startsWith("telemetry-")
+                && name.endsWith(".parquet")
+                && name.contains("-" + instanceId + "-")
+                && isSmall(status.getLen());
+    }
+
+    private Result merge(FileSystem fs, Path directory, List<FileStatus> group) throws IOException {
+        if (group.size() < minFiles) {
+            return Result.NONE;
+        }
+        // Files written before a schema change cannot share a footer with newer ones
+        MessageType schema = readSchema(group.get(0));
+        List<FileStatus> inputs = new ArrayList<>();
+        for (FileStatus input : group) {
+            if (schema.equals(readSchema(input))) {
+                inputs.add(input);
+            }
+        }
+        if (inputs.size() < minFiles) {
+            return Result.NONE;
+        }
+
+        String id = System.currentTimeMillis() + "-" + sequence.incrementAndGet();
+        String name = "telemetry-" + LocalDateTime.now().format(TIMESTAMP) + "-" + instanceId + "-compacted-" + id + ".parquet";
+        Path target = new Path(directory, name);
+        Path inProgress = new Path(PartitionWriter.inProgressPathFor(target.toString()));
+        Path marker = new Path(directory, MARKER_PREFIX + id + MARKER_SUFFIX);
+
+        writeMarker(fs, marker, name, inputs);
+        long bytes = 0;
+        PartitionManifest.Entry entry;
+        try {
+            countNamenodeRpc("create");
+            try (ParquetFileWriter writer = new ParquetFileWriter(new FileSystemOutputFile(fs, inProgress, replication),
+                    schema, ParquetFileWriter.Mode.CREATE, targetFileBytes, 0)) {
+                writer.start();
+                for (FileStatus input : inputs) {
+                    writer.appendFile(HadoopInputFile.fromStatus(input, conf));
+                    bytes += input.getLen();
+                }
+                writer.end(Map.of());
+                entry = PartitionManifest.entryFor(name, writer.getPos(), writer.getFooter());
+            }
+            countNamenodeRpc("rename");
+            if (!fs.rename(inProgress, target)) {
+                throw new IOException("Failed to rename " + inProgress + " to " + target);
+            }
+        } catch (IOException e) {
+            // Nothing is visible yet, so roll back and leave the inputs in place
+            try {
+                delete(fs, inProgress);
+                delete(fs, marker);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+
+        // A failure from here on leaves the marker behind, so the next run rolls the merge forward
+        updateManifest(fs, directory, inputs.stream().map(input -> input.getPath().getName()).toList(), entry);
+        for (FileStatus input : inputs) {
+            delete(fs, input.getPath());
+        }
+        delete(fs, marker);
+
+        meterRegistry.counter("hdfs_compaction_files_merged_total").increment(inputs.size());
+        meterRegistry.counter("hdfs_compaction_bytes_rewritten_total").increment(bytes);
+        meterRegistry.counter("hdfs_compaction_files_written_total").increment();
+        return new Result(inputs.size(), bytes, 1);
+    }
+
+    /**
+     * Finishes or undoes merges whose marker is still present: if the merged file made it
+     * into place its leftover inputs are deleted, otherwise the partial output is.
+     */
+    private boolean recoverInterrupted(FileSystem fs, FileStatus[] listing) throws IOException {
+        boolean recovered = false;
+        for (FileStatus status : listing) {
+            String name = status.getPath().getName();
+            if (!name.startsWith(MARKER_PREFIX) || !name.endsWith(MARKER_SUFFIX)) {
+                continue;
+            }
+            Path directory = status.getPath().getParent();
+            List<String> lines = readMarker(fs, status.getPath());
+            if (!lines.isEmpty()) {
+                Path target = new Path(directory, lines.get(0));
+                countNamenodeRpc("exists");
+                if (fs.exists(target)) {
+                    List<String> inputs = lines.subList(1, lines.size());
+                    if (manifest != null) {
+                        countNamenodeRpc("getFileInfo");
+                        FileStatus merged = fs.getFileStatus(target);
+                        updateManifest(fs, directory, inputs,
+                                PartitionManifest.entryFor(target.getName(), merged.getLen(), readFooter(merged)));
+                    }
+                    for (String input : inputs) {
+                        delete(fs, new Path(directory, input));
+                    }
+                    log.info("Completed interrupted compaction into {}", target);
+                } else {
+                    delete(fs, new Path(PartitionWriter.inProgressPathFor(target.toString())));
+                    log.info("Rolled back interrupted compaction into {}", target);
+                }
+            }
+            delete(fs, status.getPath());
+            recovered = true;
+        }
+        return recovered;
+    }
+
+    private MessageType readSchema(FileStatus file) throws IOException {
+        return readFooter(file).getFileMetaData().getSchema();
+    }
+
+    private ParquetMetadata readFooter(FileStatus file) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromStatus(file, conf))) {
+            return reader.getFooter();
+        }
+    }
+
+    private void updateManifest(FileSystem fs, Path directory, List<String> inputs, PartitionManifest.Entry merged)
+            throws IOException {
+        if (manifest != null) {
+            manifest.replace(fs, directory, inputs, merged);
+        }
+    }
+
+    private void writeMarker(FileSystem fs, Path marker, String target, List<FileStatus> inputs) throws IOException {
+        StringBuilder content = new StringBuilder(target).append('\n');
+        for (FileStatus input : inputs) {
+            content.append(input.getPath().getName()).append('\n');
+        }
+        countNamenodeRpc("create");
+        try (FSDataOutputStream out = fs.create(marker, false)) {
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private List<String> readMarker(FileSystem fs, Path marker) throws IOException {
+        try (FSDataInputStream in = fs.open(marker)) {
+            String content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return content.lines().filter(line -> !line.isBlank()).toList();
+        }
+    }
+
+    private FileStatus[] listStatus(FileSystem fs, Path directory) throws IOException {
+        countNamenodeRpc("list");
+        return fs.listStatus(directory);
+    }
+
+    private void delete(FileSystem fs, Path path) throws IOException {
+        countNamenodeRpc("delete");
+        fs.delete(path, false);
+    }
+
+    private void countNamenodeRpc(String operation) {
+        meterRegistry.counter("hdfs_namenode_rpc_total", "op", operation).increment();
+    }
+}
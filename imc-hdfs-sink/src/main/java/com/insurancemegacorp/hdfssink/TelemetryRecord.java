@@ -0,0 +1,87 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.Arrays;
+
+/**
+ * Flat, reusable value holder for one telemetry record.
+ *
+ * Values are stored in slots indexed by schema field index: integral, boolean and
+ * floating point values share a {@code long[]} (doubles as raw bits) and text values
+ * are kept as strings. A record is cleared and refilled for every message, so a
+ * writer can stream any number of messages through a single instance.
+ *
+ * Captured slots hold the raw text of payload fields the partition template refers to,
+ * whether or not they are schema columns.
+ */
+final class TelemetryRecord {
+
+    private final long[] numbers;
+    private final String[] strings;
+    private final boolean[] present;
+    private final String[] captured;
+
+    TelemetryRecord(int fieldCount) {
+        this(fieldCount, 0);
+    }
+
+    TelemetryRecord(int fieldCount, int capturedCount) {
+        this.numbers = new long[fieldCount];
+        this.strings = new String[fieldCount];
+        this.present = new boolean[fieldCount];
+        this.captured = new String[capturedCount];
+    }
+
+    void clear() {
+        Arrays.fill(present, false);
+        Arrays.fill(strings, null);
+        Arrays.fill(captured, null);
+    }
+
+    boolean isPresent(int index) {
+        return present[index];
+    }
+
+    void setLong(int index, long value) {
+        numbers[index] = value;
+        present[index] = true;
+    }
+
+    void setDouble(int index, double value) {
+        numbers[index] = Double.doubleToRawLongBits(value);
+        present[index] = true;
+    }
+
+    void setBoolean(int index, boolean value) {
+        numbers[index] = value ? 1L : 0L;
+        present[index] = true;
+    }
+
+    void setString(int index, String value) {
+        strings[index] = value;
+        present[index] = value != null;
+    }
+
+    long getLong(int index) {
+        return numbers[index];
+    }
+
+    double getDouble(int index) {
+        return Double.longBitsToDouble(numbers[index]);
+    }
+
+    boolean getBoolean(int index) {
+        return numbers[index] != 0L;
+    }
+
+    String getString(int index) {
+        return strings[index];
+    }
+
+    void setCaptured(int index, String value) {
+        captured[index] = value;
+    }
+
+    String getCaptured(int index) {
+        return captured[index];
+    }
+}
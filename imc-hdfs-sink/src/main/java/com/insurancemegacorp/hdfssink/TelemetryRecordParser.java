@@ -0,0 +1,104 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a flat JSON object into a {@link TelemetryRecord} without building a tree.
+ *
+ * Top-level fields are matched against the {@link ColumnWritePlan}; unknown fields and
+ * nested objects or arrays are skipped. Fields named in {@code capturedFields} are also
+ * kept as raw text for partition path evaluation. The parser itself is stateless and
+ * thread-safe.
+ */
+final class TelemetryRecordParser {
+    private static final Logger log = LoggerFactory.getLogger(TelemetryRecordParser.class);
+
+    private record Binding(ColumnWritePlan.Column column, int captureIndex) {
+    }
+
+    private final JsonFactory jsonFactory;
+    private final ColumnWritePlan plan;
+    private final int capturedCount;
+    // One lookup per field name, covering both the column and the capture slot
+    private final Map<String, Binding> bindings = new HashMap<>();
+
+    TelemetryRecordParser(JsonFactory jsonFactory, ColumnWritePlan plan) {
+        this(jsonFactory, plan, List.of());
+    }
+
+    TelemetryRecordParser(JsonFactory jsonFactory, ColumnWritePlan plan, List<String> capturedFields) {
+        this.jsonFactory = jsonFactory;
+        this.plan = plan;
+        this.capturedCount = capturedFields.size();
+        for (ColumnWritePlan.Column column : plan.columns()) {
+            bindings.put(column.name(), new Binding(column, -1));
+        }
+        for (int i = 0; i < capturedFields.size(); i++) {
+            String field = capturedFields.get(i);
+            Binding existing = bindings.get(field);
+            bindings.put(field, new Binding(existing == null ? null : existing.column(), i));
+        }
+    }
+
+    /**
+     * A record sized for the plan's columns and this parser's captured fields.
+     */
+    TelemetryRecord newRecord() {
+        return new TelemetryRecord(plan.columns().size(), capturedCount);
+    }
+
+    void parse(String json, TelemetryRecord record) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parse(parser, record);
+        }
+    }
+
+    /**
+     * Parses UTF-8 JSON directly from the broker payload without decoding it to a String.
+     */
+    void parse(byte[] json, TelemetryRecord record) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            parse(parser, record);
+        }
+    }
+
+    private void parse(JsonParser parser, TelemetryRecord record) throws IOException {
+        record.clear();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Binding binding = bindings.get(parser.currentName());
+            JsonToken value = parser.nextToken();
+            if (value.isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+            if (binding == null || value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if (binding.captureIndex() >= 0) {
+                record.setCaptured(binding.captureIndex(), parser.getText());
+            }
+            ColumnWritePlan.Column column = binding.column();
+            if (column == null) {
+                continue;
+            }
+            try {
+                column.reader().read(parser, record, column.fieldIndex());
+            } catch (IOException e) {
+                log.warn("Failed to add field {} with value {}: {}", column.name(), parser.getText(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+/**
+ * Parquet schema for flattened telemetry records.
+ *
+ * The schema is parsed exactly once per JVM and shared by every writer, together with
+ * the precompiled {@link ColumnWritePlan} derived from it.
+ */
+final class TelemetrySchema {
+
+    static final MessageType SCHEMA = MessageTypeParser.parseMessageType("""
+            message telemetry {
+                optional int64 policy_id;
+                optional int64 vehicle_id;
+                optional binary vin (UTF8);
+                optional int64 event_time (TIMESTAMP(MILLIS,true));
+                optional double speed_mph;
+                optional int32 speed_limit_mph;
+                optional binary current_street (UTF8);
+                optional double g_force;
+                optional int32 driver_id;
+
+                optional double gps_latitude;
+                optional double gps_longitude;
+                optional double gps_altitude;
+                optional double gps_speed;
+                optional double gps_bearing;
+                optional double gps_accuracy;
+                optional int32 gps_satellite_count;
+                optional int32 gps_fix_time;
+
+                optional double accelerometer_x;
+                optional double accelerometer_y;
+                optional double accelerometer_z;
+
+                optional double gyroscope_x;
+                optional double gyroscope_y;
+                optional double gyroscope_z;
+
+                optional double magnetometer_x;
+                optional double magnetometer_y;
+                optional double magnetometer_z;
+                optional double magnetometer_heading;
+
+                optional double barometric_pressure;
+
+                optional int32 device_battery_level;
+                optional int32 device_signal_strength;
+                optional binary device_orientation (UTF8);
+                optional boolean device_screen_on;
+                optional boolean device_charging;
+            }
+            """);
+
+    static final ColumnWritePlan PLAN = ColumnWritePlan.compile(SCHEMA);
+
+    private TelemetrySchema() {
+    }
+}
@@ -0,0 +1,94 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.RecordConsumer;
+
+import java.util.HashMap;
+
+/**
+ * Parquet {@link WriteSupport} that pushes {@link TelemetryRecord} slots straight into the
+ * {@link RecordConsumer} following the precompiled {@link ColumnWritePlan}.
+ *
+ * Together with {@link TelemetryRecordParser} this replaces the JsonNode tree and
+ * SimpleGroup graph that were built for every message.
+ */
+final class TelemetryWriteSupport extends WriteSupport<TelemetryRecord> {
+
+    private final ColumnWritePlan plan;
+    private final ColumnWritePlan.Column[] columns;
+    private RecordConsumer recordConsumer;
+
+    TelemetryWriteSupport(ColumnWritePlan plan) {
+        this.plan = plan;
+        this.columns = plan.columnArray();
+    }
+
+    @Override
+    public String getName() {
+        return "imc-telemetry";
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(plan.schema(), new HashMap<>());
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.recordConsumer = recordConsumer;
+    }
+
+    @Override
+    public void write(TelemetryRecord record) {
+        recordConsumer.startMessage();
+        for (ColumnWritePlan.Column column : columns) {
+            int index = column.fieldIndex();
+            if (!record.isPresent(index)) {
+                continue;
+            }
+            recordConsumer.startField(column.name(), index);
+            column.writer().write(recordConsumer, record, index);
+            recordConsumer.endField(column.name(), index);
+        }
+        recordConsumer.endMessage();
+    }
+
+    static Builder builder(Path file) {
+        return new Builder(file);
+    }
+
+    static Builder builder(OutputFile file) {
+        return new Builder(file);
+    }
+
+    static final class Builder extends ParquetWriter.Builder<TelemetryRecord, Builder> {
+        private ColumnWritePlan plan = TelemetrySchema.PLAN;
+
+        private Builder(Path file) {
+            super(file);
+        }
+
+        private Builder(OutputFile file) {
+            super(file);
+        }
+
+        Builder withPlan(ColumnWritePlan plan) {
+            this.plan = plan;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<TelemetryRecord> getWriteSupport(Configuration conf) {
+            return new TelemetryWriteSupport(plan);
+        }
+    }
+}
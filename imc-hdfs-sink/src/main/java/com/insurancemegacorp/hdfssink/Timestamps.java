@@ -0,0 +1,121 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Converts the JSON representations of {@code event_time} into UTC epoch milliseconds.
+ *
+ * The canonical {@code 2024-01-15T10:30:45.123Z} form is parsed by hand without going
+ * through {@link java.time.format.DateTimeFormatter}; other ISO-8601 variants fall back to
+ * {@link OffsetDateTime} and, without an offset, are taken as UTC. Numbers are epoch
+ * seconds or milliseconds, told apart by magnitude.
+ */
+final class Timestamps {
+
+    // 10^11 seconds is the year 5138, 10^11 milliseconds is March 1973
+    private static final long SECONDS_THRESHOLD = 100_000_000_000L;
+
+    private Timestamps() {
+    }
+
+    static long readMillis(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return epochNumberToMillis(parser.getLongValue());
+        }
+        if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            double value = parser.getDoubleValue();
+            return Math.abs(value) < SECONDS_THRESHOLD ? Math.round(value * 1000) : Math.round(value);
+        }
+        String text = parser.getValueAsString();
+        try {
+            return parseMillis(text);
+        } catch (DateTimeException | NumberFormatException | NullPointerException e) {
+            throw new JsonParseException(parser, "Invalid timestamp: " + text, e);
+        }
+    }
+
+    static long epochNumberToMillis(long value) {
+        return Math.abs(value) < SECONDS_THRESHOLD ? value * 1000 : value;
+    }
+
+    static long parseMillis(String text) {
+        long fast = parseCanonicalUtc(text);
+        if (fast != Long.MIN_VALUE) {
+            return fast;
+        }
+        if (!text.isEmpty() && (Character.isDigit(text.charAt(0)) || text.charAt(0) == '-') && text.indexOf('T') < 0
+                && text.indexOf('-', 1) < 0) {
+            return epochNumberToMillis(Long.parseLong(text));
+        }
+        try {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+    }
+
+    /**
+     * {@code yyyy-MM-ddTHH:mm:ss[.f{1,9}]Z}, or {@link Long#MIN_VALUE} if the text has any
+     * other shape.
+     */
+    private static long parseCanonicalUtc(String text) {
+        int length = text.length();
+        if (length < 20 || text.charAt(length - 1) != 'Z' || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || text.charAt(10) != 'T' || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        int hour = digits(text, 11, 13);
+        int minute = digits(text, 14, 16);
+        int second = digits(text, 17, 19);
+        int millis = 0;
+        if (length > 20) {
+            int fractionDigits = length - 21;
+            if (text.charAt(19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                return Long.MIN_VALUE;
+            }
+            int used = Math.min(fractionDigits, 3);
+            millis = digits(text, 20, 20 + used);
+            for (int i = used; i < 3; i++) {
+                millis *= 10;
+            }
+            if (fractionDigits > 3 && digits(text, 23, length - 1) < 0) {
+                return Long.MIN_VALUE;
+            }
+        }
+        if ((year | month | day | hour | minute | second | millis) < 0 || hour > 23 || minute > 59 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        long epochDay;
+        try {
+            epochDay = LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+        return ((epochDay * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    }
+
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,72 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+import java.io.IOException;
+
+/**
+ * {@link OutputFile} that keeps hold of the stream it opened, so the bytes already written
+ * to the file can be told apart from the row group Parquet still buffers in memory. It also
+ * holds the lease on the client the stream is written through until the file is closed.
+ */
+final class TrackedOutputFile implements OutputFile {
+
+    private final OutputFile delegate;
+    private final ManagedFileSystem.Lease client;
+    private volatile PositionOutputStream stream;
+
+    TrackedOutputFile(OutputFile delegate) {
+        this(delegate, null);
+    }
+
+    TrackedOutputFile(OutputFile delegate, ManagedFileSystem.Lease client) {
+        this.delegate = delegate;
+        this.client = client;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) throws IOException {
+        stream = delegate.create(blockSizeHint);
+        return stream;
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+        stream = delegate.createOrOverwrite(blockSizeHint);
+        return stream;
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+        return delegate.supportsBlockSize();
+    }
+
+    @Override
+    public long defaultBlockSize() {
+        return delegate.defaultBlockSize();
+    }
+
+    @Override
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    /**
+     * Bytes handed to the file system so far; 0 before the file is created.
+     */
+    long position() throws IOException {
+        PositionOutputStream current = stream;
+        return current == null ? 0 : current.getPos();
+    }
+
+    /**
+     * Lets go of the client once the stream is closed; the client is closed with it if it
+     * has been replaced meanwhile.
+     */
+    void release() {
+        if (client != null) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped write-ahead log for messages buffered by the sink.
+ *
+ * Every accepted message is appended to the active segment before the binder is allowed
+ * to ack it. Each segment counts the records that have not yet reached a closed Parquet
+ * file; once a segment is sealed and that count drops to zero the segment file is
+ * deleted. On startup {@link #recover()} replays every record left in surviving segments.
+ *
+ * Record layout: {@code [marker:1][length:4][crc32:4][payload]}. The marker byte is
+ * written last, so a record torn by a crash is never replayed.
+ */
+final class WriteAheadSpool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadSpool.class);
+
+    static final long NO_SEGMENT = -1L;
+
+    private static final byte RECORD_MARKER = 1;
+    private static final int HEADER_BYTES = 9;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private long nextSegmentId;
+
+    private static final class Segment {
+        final long id;
+        final Path file;
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean sealed;
+        FileChannel channel;
+        MappedByteBuffer buffer;
+
+        Segment(long id, Path file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    WriteAheadSpool(Path directory, int segmentSize, boolean forceWrites) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+    }
+
+    /**
+     * Reads back every intact record left behind by a previous run. Recovered segments are
+     * sealed and released like any other once their records have been written. Must be
+     * called before the first {@link #append(byte[])}.
+     */
+    synchronized List<SinkMessage> recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        List<SinkMessage> recovered = new ArrayList<>();
+        for (Path file : files) {
+            long id = parseSegmentId(file);
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            int count = readSegment(file, id, recovered);
+            if (count == 0) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            Segment segment = new Segment(id, file);
+            segment.pending.set(count);
+            segment.sealed = true;
+            segments.put(id, segment);
+            log.info("Recovered {} spooled messages from {}", count, file);
+        }
+        return recovered;
+    }
+
+    private int readSegment(Path file, long id, List<SinkMessage> recovered) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 checksum = new CRC32();
+            int count = 0;
+            while (buffer.remaining() >= HEADER_BYTES && buffer.get(buffer.position()) == RECORD_MARKER) {
+                int start = buffer.position();
+                int length = buffer.getInt(start + 1);
+                int expectedCrc = buffer.getInt(start + 5);
+                if (length < 0 || length > buffer.remaining() - HEADER_BYTES) {
+                    log.warn("Truncated record at offset {} in spool segment {}", start, file);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(start + HEADER_BYTES, payload);
+                checksum.reset();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != expectedCrc) {
+                    log.warn("Checksum mismatch at offset {} in spool segment {}", start, file);
+                    break;
+                }
+                recovered.add(new SinkMessage(payload, id));
+                buffer.position(start + HEADER_BYTES + length);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Durably records a message and returns the id of the segment holding it.
+     */
+    long append(String message) throws IOException {
+        return append(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    synchronized long append(byte[] payload) throws IOException {
+        int start = writeRecord(payload);
+        if (forceWrites) {
+            active.buffer.force(start, active.buffer.position() - start);
+        }
+        return active.id;
+    }
+
+    /**
+     * Durably records a batch of messages, forcing them to disk once rather than per
+     * message, and returns the id of the segment holding each one.
+     */
+    synchronized long[] appendAll(List<byte[]> payloads) throws IOException {
+        long[] segments = new long[payloads.size()];
+        Segment first = null;
+        int forceFrom = 0;
+        for (int i = 0; i < segments.length; i++) {
+            Segment before = active;
+            int start = writeRecord(payloads.get(i));
+            // Rolling seals and forces the previous segment, so only the active one is left
+            if (first == null || active != before) {
+                first = active;
+                forceFrom = start;
+            }
+            segments[i] = active.id;
+        }
+        if (forceWrites && first != null) {
+            active.buffer.force(forceFrom, active.buffer.position() - forceFrom);
+        }
+        return segments;
+    }
+
+    private int writeRecord(byte[] payload) throws IOException {
+        int needed = HEADER_BYTES + payload.length;
+        if (active == null || active.buffer.remaining() < needed) {
+            rollSegment(needed);
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int start = buffer.position();
+        crc.reset();
+        crc.update(payload);
+        buffer.put(start + HEADER_BYTES, payload);
+        buffer.putInt(start + 5, (int) crc.getValue());
+        buffer.putInt(start + 1, payload.length);
+        buffer.put(start, RECORD_MARKER);
+        buffer.position(start + needed);
+        active.pending.incrementAndGet();
+        return start;
+    }
+
+    /**
+     * Marks {@code count} records of a segment as safely written to a closed Parquet file.
+     */
+    void release(long segmentId, int count) {
+        if (segmentId == NO_SEGMENT || count <= 0) {
+            return;
+        }
+        Segment segment = segments.get(segmentId);
+        if (segment == null) {
+            return;
+        }
+        if (segment.pending.addAndGet(-count) <= 0 && segment.sealed) {
+            delete(segment);
+        }
+    }
+
+    void release(Map<Long, Integer> segmentCounts) {
+        segmentCounts.forEach(this::release);
+    }
+
+    private void rollSegment(int minimumSize) throws IOException {
+        if (active != null) {
+            seal(active);
+        }
+        long id = nextSegmentId++;
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, file);
+        segment.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minimumSize));
+        segments.put(id, segment);
+        active = segment;
+        log.debug("Opened spool segment {}", file);
+    }
+
+    private void seal(Segment segment) throws IOException {
+        segment.buffer.force();
+        segment.channel.close();
+        segment.sealed = true;
+        if (segment.pending.get() <= 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        if (segments.remove(segment.id) == null) {
+            return;
+        }
+        try {
+            // The mapping itself is released when the buffer is collected
+            Files.deleteIfExists(segment.file);
+            log.debug("Deleted fully committed spool segment {}", segment.file);
+        } catch (IOException e) {
+            log.warn("Failed to delete spool segment {}: {}", segment.file, e.getMessage());
+        }
+    }
+
+    private static long parseSegmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    long pendingMessages() {
+        long pending = 0;
+        for (Segment segment : segments.values()) {
+            pending += Math.max(0, segment.pending.get());
+        }
+        return pending;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            seal(active);
+            active = null;
+        }
+    }
+}
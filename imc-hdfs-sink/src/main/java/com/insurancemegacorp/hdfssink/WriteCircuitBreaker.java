@@ -0,0 +1,138 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Failure policy for HDFS writes, shared by all writer lanes.
+ *
+ * Every failed write doubles the pause before the next one, from the initial backoff up to
+ * the maximum, and the pause holds back every lane since they all write to the same
+ * NameNode. After {@code failureThreshold} consecutive failures the circuit opens and
+ * stays open for the current backoff: no lane drains the ingest queue, so messages stay
+ * buffered in order and, once the queue is full, in the broker. When the backoff elapses
+ * the circuit half-opens and a single lane probes with the next batch; success closes it,
+ * failure reopens it for twice as long.
+ */
+final class WriteCircuitBreaker {
+
+    enum State {
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int code;
+
+        State(int code) {
+            this.code = code;
+        }
+
+        /**
+         * Value published by the {@code hdfs_write_circuit_state} gauge.
+         */
+        int code() {
+            return code;
+        }
+    }
+
+    private final int failureThreshold;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long retryAtMillis;
+    private boolean probing;
+    private long openedCount;
+
+    WriteCircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis) {
+        this(failureThreshold, initialBackoffMillis, maxBackoffMillis, System::currentTimeMillis);
+    }
+
+    WriteCircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Asks to write a batch.
+     *
+     * @return 0 if the caller may go ahead, otherwise how long to wait before asking again.
+     *         A caller granted the half-open probe must report its outcome, or
+     *         {@link #release()} the permit if it had nothing to write.
+     */
+    synchronized long permit() {
+        long now = clock.getAsLong();
+        switch (state) {
+            case CLOSED:
+                return Math.max(0, retryAtMillis - now);
+            case OPEN:
+                if (now < retryAtMillis) {
+                    return retryAtMillis - now;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return 0;
+            default:
+                if (probing) {
+                    return initialBackoffMillis;
+                }
+                probing = true;
+                return 0;
+        }
+    }
+
+    /**
+     * Hands back a permit that was not used for a write, so another lane can probe.
+     */
+    synchronized void release() {
+        probing = false;
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        retryAtMillis = 0;
+        probing = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        probing = false;
+        retryAtMillis = clock.getAsLong() + backoffMillis(consecutiveFailures);
+        // A failed probe reopens the circuit whatever the count
+        boolean open = state == State.HALF_OPEN || consecutiveFailures >= failureThreshold;
+        if (open && state != State.OPEN) {
+            openedCount++;
+        }
+        if (open) {
+            state = State.OPEN;
+        }
+    }
+
+    private long backoffMillis(int failures) {
+        int doublings = Math.min(failures - 1, 30);
+        return Math.min(maxBackoffMillis, initialBackoffMillis << doublings);
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * When the next write may be attempted, in epoch millis; 0 when it may go ahead now.
+     */
+    synchronized long retryAtMillis() {
+        return retryAtMillis;
+    }
+
+    /**
+     * How many times the circuit has opened, including reopening after a failed probe.
+     */
+    synchronized long openedCount() {
+        return openedCount;
+    }
+}
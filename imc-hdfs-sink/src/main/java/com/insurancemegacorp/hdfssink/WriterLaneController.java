@@ -0,0 +1,69 @@
+package com.insurancemegacorp.hdfssink;
+
+/**
+ * Decides when to add or retire a writer lane, within fixed bounds.
+ *
+ * Each evaluation looks at the ingest queue depth and at lane utilization, the share of
+ * the interval the lanes spent writing batches. Utilization folds per-writer write latency
+ * and batch rate into one number: slow HDFS writes and heavy traffic both push it up.
+ * A lane is added when every lane has at least a full batch waiting and the lanes are
+ * busy; one is retired when the queue holds less than a batch and the lanes are mostly
+ * idle. Either condition has to hold for several consecutive evaluations, so a single
+ * burst or lull does not make the lane count flap.
+ *
+ * Not thread-safe: evaluated from a single scheduler thread.
+ */
+final class WriterLaneController {
+
+    static final double BUSY_UTILIZATION = 0.75;
+    static final double IDLE_UTILIZATION = 0.3;
+
+    private final int minLanes;
+    private final int maxLanes;
+    private final int batchSize;
+    private final int sustainedIntervals;
+    private int pressureStreak;
+    private int slackStreak;
+
+    WriterLaneController(int minLanes, int maxLanes, int batchSize, int sustainedIntervals) {
+        if (minLanes < 1 || maxLanes < minLanes) {
+            throw new IllegalArgumentException("Writer lane bounds must satisfy 1 <= min <= max, got " + minLanes + ".." + maxLanes);
+        }
+        this.minLanes = minLanes;
+        this.maxLanes = maxLanes;
+        this.batchSize = batchSize;
+        this.sustainedIntervals = Math.max(1, sustainedIntervals);
+    }
+
+    /**
+     * Returns +1 to add a lane, -1 to retire one, or 0 to keep the current count.
+     */
+    int evaluate(int lanes, int queueDepth, double utilization) {
+        boolean pressure = queueDepth >= (long) lanes * batchSize && utilization >= BUSY_UTILIZATION;
+        boolean slack = queueDepth < batchSize && utilization < IDLE_UTILIZATION;
+        pressureStreak = pressure ? pressureStreak + 1 : 0;
+        slackStreak = slack ? slackStreak + 1 : 0;
+
+        if (pressureStreak >= sustainedIntervals && lanes < maxLanes) {
+            pressureStreak = 0;
+            return 1;
+        }
+        if (slackStreak >= sustainedIntervals && lanes > minLanes) {
+            slackStreak = 0;
+            return -1;
+        }
+        return 0;
+    }
+
+    int minLanes() {
+        return minLanes;
+    }
+
+    int maxLanes() {
+        return maxLanes;
+    }
+
+    boolean isAdaptive() {
+        return minLanes < maxLanes;
+    }
+}
@@ -0,0 +1,84 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sink-wide limit on the heap held by open Parquet writers.
+ *
+ * Every {@code ParquetWriter} buffers its current row group in memory until it reaches
+ * the row group size, so with many open partitions the heap grows with the number of
+ * writers rather than with the data rate. Open writers are registered here and report
+ * their buffered bytes after each batch; when the total exceeds the budget the largest
+ * one is picked to be committed, which writes out its row group and frees the buffer.
+ *
+ * A writer is unregistered when it leaves its pool. Closing it is what releases the
+ * memory, so writers waiting for the commit executor are bounded by
+ * {@code hdfs.commit.maxPending} instead.
+ */
+final class WriterMemoryBudget {
+
+    private final long budgetBytes;
+    private final Set<PartitionWriter> writers = ConcurrentHashMap.newKeySet();
+
+    WriterMemoryBudget(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Writer memory budget must be positive, got " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    void register(PartitionWriter writer) {
+        writers.add(writer);
+    }
+
+    void unregister(PartitionWriter writer) {
+        writers.remove(writer);
+    }
+
+    /**
+     * The registered writers, for diagnostics; a live view, read without locking.
+     */
+    Set<PartitionWriter> writers() {
+        return Collections.unmodifiableSet(writers);
+    }
+
+    long budgetBytes() {
+        return budgetBytes;
+    }
+
+    long bufferedBytes() {
+        long total = 0;
+        for (PartitionWriter writer : writers) {
+            total += writer.bufferedBytes();
+        }
+        return total;
+    }
+
+    long bufferedBytes(String writerId) {
+        long total = 0;
+        for (PartitionWriter writer : writers) {
+            if (writer.writerId().equals(writerId)) {
+                total += writer.bufferedBytes();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The writer holding the most memory if the budget is exceeded, otherwise null.
+     */
+    PartitionWriter largestOverBudget() {
+        long total = 0;
+        PartitionWriter largest = null;
+        for (PartitionWriter writer : writers) {
+            long buffered = writer.bufferedBytes();
+            total += buffered;
+            if (largest == null || buffered > largest.bufferedBytes()) {
+                largest = writer;
+            }
+        }
+        return total > budgetBytes ? largest : null;
+    }
+}
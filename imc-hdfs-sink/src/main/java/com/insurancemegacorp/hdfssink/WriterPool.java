@@ -0,0 +1,105 @@
+package com.insurancemegacorp.hdfssink;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Open {@link PartitionWriter}s of the sink, shared by all writer lanes, keyed by partition
+ * path and kept in least-recently-used order.
+ *
+ * The pool never closes writers itself; it hands evicted and idle writers back to the
+ * caller, which closes them. Not thread-safe: callers synchronize on the pool, and write
+ * to a writer under the writer's own lock. The {@link RunBufferPool} is the exception, as
+ * closed writers return their buffers to it.
+ */
+final class WriterPool {
+
+    private final int capacity;
+    private final RunBufferPool runBuffers;
+    private final LinkedHashMap<String, PartitionWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+
+    WriterPool(int capacity) {
+        this(capacity, null);
+    }
+
+    WriterPool(int capacity, RunBufferPool runBuffers) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Writer pool capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.runBuffers = runBuffers;
+    }
+
+    /**
+     * Returns the open writer for a partition and marks it most recently used.
+     */
+    PartitionWriter get(String partition) {
+        return writers.get(partition);
+    }
+
+    void put(PartitionWriter writer) {
+        writers.put(writer.partition(), writer);
+    }
+
+    PartitionWriter remove(String partition) {
+        return writers.remove(partition);
+    }
+
+    /**
+     * Removes the writer unless its partition already has a newer one.
+     */
+    void remove(PartitionWriter writer) {
+        writers.remove(writer.partition(), writer);
+    }
+
+    /**
+     * Removes and returns the least recently used writer if opening another one would
+     * exceed the pool capacity, otherwise {@code null}.
+     */
+    PartitionWriter evictIfFull() {
+        if (writers.size() < capacity) {
+            return null;
+        }
+        Iterator<PartitionWriter> eldest = writers.values().iterator();
+        PartitionWriter evicted = eldest.next();
+        eldest.remove();
+        return evicted;
+    }
+
+    /**
+     * Removes and returns every writer that has not been written since {@code cutoffMillis}.
+     */
+    List<PartitionWriter> removeIdle(long cutoffMillis) {
+        List<PartitionWriter> idle = new ArrayList<>();
+        Iterator<PartitionWriter> it = writers.values().iterator();
+        while (it.hasNext()) {
+            PartitionWriter writer = it.next();
+            if (writer.lastWriteTime() < cutoffMillis) {
+                idle.add(writer);
+                it.remove();
+            }
+        }
+        return idle;
+    }
+
+    List<PartitionWriter> writers() {
+        return new ArrayList<>(writers.values());
+    }
+
+    int size() {
+        return writers.size();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Sort run buffers for the pool's writers; null unless runs are sorted.
+     */
+    RunBufferPool runBuffers() {
+        return runBuffers;
+    }
+}
@@ -0,0 +1,71 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarRunBufferTest {
+
+    @TempDir
+    File tempDir;
+
+    private final TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN);
+
+    @Test
+    void testEveryColumnTypeSurvivesStagingAcrossRuns() throws Exception {
+        Path file = new Path(new File(tempDir, "staged.parquet").toURI());
+        ColumnarRunBuffer buffer = new ColumnarRunBuffer(2);
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+
+        try (ParquetWriter<TelemetryRecord> writer = TelemetryWriteSupport.builder(file).withConf(new Configuration()).build()) {
+            for (int i = 0; i < 3; i++) {
+                parser.parse("{\"policy_id\":" + (200000 + i) + ",\"vin\":\"VIN-" + (i % 2) + "\",\"event_time\":" + (1000 + i)
+                        + ",\"gps_latitude\":33.7" + i + ",\"driver_id\":" + (400000 - i) + ",\"device_charging\":" + (i == 1)
+                        + ",\"current_street\":\"Peachtree St\"}", record);
+                if (buffer.add(record)) {
+                    buffer.flushTo(writer);
+                }
+            }
+            // The record is recycled by the caller, so the buffer must not hold on to it
+            record.clear();
+            buffer.flushTo(writer);
+        }
+
+        List<Group> groups = TelemetryWriteSupportTest.readGroups(file);
+        assertEquals(3, groups.size());
+        // Sorted by driver within each run of two
+        Group first = groups.get(0);
+        assertEquals(200001L, first.getLong("policy_id", 0));
+        assertEquals("VIN-1", first.getString("vin", 0));
+        assertEquals(1_001_000L, first.getLong("event_time", 0));
+        assertEquals(33.71, first.getDouble("gps_latitude", 0));
+        assertEquals(399999, first.getInteger("driver_id", 0));
+        assertTrue(first.getBoolean("device_charging", 0));
+        assertEquals("Peachtree St", first.getString("current_street", 0));
+        assertEquals(0, first.getFieldRepetitionCount("gps_longitude"));
+        assertEquals(200000L, groups.get(1).getLong("policy_id", 0));
+        assertEquals("VIN-0", groups.get(2).getString("vin", 0));
+        assertEquals(399998, groups.get(2).getInteger("driver_id", 0));
+    }
+
+    @Test
+    void testPoolKeepsOnlyAFewIdleBuffers() {
+        RunBufferPool pool = new RunBufferPool(4, 2);
+        List<ColumnarRunBuffer> burst = List.of(pool.take(), pool.take(), pool.take());
+        burst.forEach(pool::release);
+        assertEquals(2, pool.idle());
+
+        // Kept buffers are handed out again before new ones are allocated
+        assertSame(burst.get(0), pool.take());
+        assertEquals(1, pool.idle());
+    }
+}
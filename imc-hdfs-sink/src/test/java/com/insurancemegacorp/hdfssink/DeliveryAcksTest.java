@@ -0,0 +1,93 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class DeliveryAcksTest {
+
+    @Test
+    void testOutOfOrderCommitsAreAckedInOneFrame() throws Exception {
+        Channel channel = mock(Channel.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DeliveryAcks acks = new DeliveryAcks(channel, registry);
+        for (long tag = 1; tag <= 5; tag++) {
+            acks.received(tag);
+        }
+
+        // The second file commits first: nothing can be acked while tag 1 is outstanding
+        acks.ack(held(2, 4));
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        acks.ack(held(1, 3));
+        verify(channel).basicAck(4, true);
+        assertEquals(1, acks.outstanding());
+        assertEquals(4, registry.counter("hdfs_messages_acked_total").count());
+    }
+
+    @Test
+    void testRequeuedTagIsNeverTheAckedTag() throws Exception {
+        Channel channel = mock(Channel.class);
+        DeliveryAcks acks = new DeliveryAcks(channel, new SimpleMeterRegistry());
+        acks.received(1);
+        acks.received(2);
+        acks.received(3);
+
+        acks.requeue(1);
+        verify(channel).basicNack(1, false, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        // 3 was requeued after 2 was written: the broker no longer knows 3, so 2 is acked
+        acks.ack(2);
+        acks.requeue(3);
+        verify(channel).basicAck(2, true);
+        verify(channel).basicNack(3, false, true);
+        assertEquals(0, acks.outstanding());
+    }
+
+    @Test
+    void testTagsSurviveRingGrowthAndWrapAround() throws Exception {
+        Channel channel = mock(Channel.class);
+        DeliveryAcks acks = new DeliveryAcks(channel, new SimpleMeterRegistry());
+        for (long tag = 1; tag <= 1000; tag++) {
+            acks.received(tag);
+        }
+        acks.ack(held(1, 1000));
+        for (long tag = 1001; tag <= 3000; tag++) {
+            acks.received(tag);
+        }
+
+        acks.ack(held(1001, 3000));
+        verify(channel).basicAck(3000, true);
+        assertEquals(0, acks.outstanding());
+    }
+
+    @Test
+    void testClosedChannelDropsOutstandingTags() throws Exception {
+        Channel channel = mock(Channel.class);
+        doThrow(new java.io.IOException("channel closed")).when(channel).basicAck(anyLong(), anyBoolean());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DeliveryAcks acks = new DeliveryAcks(channel, registry);
+        acks.received(1);
+        acks.received(2);
+
+        acks.ack(1);
+
+        assertFalse(acks.isOpen());
+        assertEquals(0, acks.outstanding());
+        assertEquals(1, registry.counter("hdfs_ack_channel_failures_total").count());
+    }
+
+    private static DeliveryAcks.Held held(long from, long to) {
+        DeliveryAcks.Held held = new DeliveryAcks.Held();
+        for (long tag = from; tag <= to; tag++) {
+            held.add(tag);
+        }
+        return held;
+    }
+}
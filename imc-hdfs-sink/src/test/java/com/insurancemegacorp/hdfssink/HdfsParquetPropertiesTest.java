@@ -0,0 +1,108 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HdfsParquetPropertiesTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testBindsPerColumnOverridesOnTopOfDefaults() {
+        MapConfigurationPropertySource source = new MapConfigurationPropertySource(Map.of(
+                "hdfs.parquet.codec", "zstd",
+                "hdfs.parquet.zstd-level", "9",
+                "hdfs.parquet.columns[gps_speed].dictionary", "false",
+                "hdfs.parquet.columns[vin].bloom-filter", "false"));
+        HdfsParquetProperties properties = new Binder(source)
+                .bind("hdfs.parquet", Bindable.ofInstance(new HdfsParquetProperties()))
+                .get();
+
+        assertEquals(CompressionCodecName.ZSTD, properties.getCodec());
+        assertEquals(9, properties.getZstdLevel());
+        assertFalse(properties.getColumns().get("gps_speed").getDictionary());
+        assertFalse(properties.getColumns().get("vin").getBloomFilter());
+        assertTrue(properties.getColumns().get("driver_id").getBloomFilter());
+        properties.validate(TelemetrySchema.SCHEMA);
+    }
+
+    @Test
+    void testColumnOverrideKeepsTheDefaultsItLeavesUnset() {
+        MapConfigurationPropertySource source = new MapConfigurationPropertySource(Map.of(
+                "hdfs.parquet.columns[driver_id].dictionary", "false",
+                "hdfs.parquet.columns[policy_id].bloom-filter", "true"));
+        HdfsParquetProperties properties = new Binder(source)
+                .bindOrCreate("hdfs.parquet", HdfsParquetProperties.class);
+
+        HdfsParquetProperties.Column driver = properties.getColumns().get("driver_id");
+        assertFalse(driver.getDictionary());
+        assertTrue(driver.getBloomFilter());
+        assertEquals(HdfsParquetProperties.DEFAULT_BLOOM_FILTER_NDV, driver.getBloomFilterNdv());
+        assertTrue(properties.getColumns().get("vin").getBloomFilter());
+        assertTrue(properties.getColumns().get("vehicle_id").getBloomFilter());
+        assertTrue(properties.getColumns().get("policy_id").getBloomFilter());
+    }
+
+    @Test
+    void testWriterConfigurationIsACopyWithTheZstdLevel() {
+        HdfsParquetProperties properties = new HdfsParquetProperties();
+        properties.setZstdLevel(9);
+        Configuration conf = new Configuration(false);
+
+        Configuration writerConf = properties.writerConfiguration(conf);
+
+        assertEquals(9, writerConf.getInt(HdfsParquetProperties.ZSTD_LEVEL_KEY, 0));
+        assertNull(conf.get(HdfsParquetProperties.ZSTD_LEVEL_KEY));
+    }
+
+    @Test
+    void testRejectsUnknownColumn() {
+        HdfsParquetProperties properties = new HdfsParquetProperties();
+        properties.getColumns().put("driverid", new HdfsParquetProperties.Column());
+        assertThrows(IllegalStateException.class, () -> properties.validate(TelemetrySchema.SCHEMA));
+    }
+
+    @Test
+    void testWriterUsesCodecAndBloomFilters() throws Exception {
+        HdfsParquetProperties properties = new HdfsParquetProperties();
+        properties.setCodec(CompressionCodecName.ZSTD);
+        Path file = new Path(new File(tempDir, "zstd.parquet").toURI());
+        TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN);
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+
+        try (ParquetWriter<TelemetryRecord> writer = properties.applyTo(TelemetryWriteSupport.builder(file), properties.writerConfiguration(new Configuration())).build()) {
+            for (int i = 0; i < 100; i++) {
+                parser.parse("{\"vehicle_id\":" + i + ",\"vin\":\"VIN" + i + "\",\"g_force\":1.5}", record);
+                writer.write(record);
+            }
+        }
+
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, new Configuration()))) {
+            for (ColumnChunkMetaData column : reader.getFooter().getBlocks().get(0).getColumns()) {
+                assertEquals(CompressionCodecName.ZSTD, column.getCodec());
+                String name = column.getPath().toDotString();
+                boolean bloom = column.getBloomFilterOffset() >= 0;
+                assertEquals(name.equals("vin") || name.equals("vehicle_id") || name.equals("driver_id"), bloom, name);
+            }
+            assertNotNull(reader.readBloomFilter(reader.getFooter().getBlocks().get(0).getColumns().stream()
+                    .filter(c -> c.getPath().toDotString().equals("vin")).findFirst().orElseThrow()));
+        }
+    }
+}
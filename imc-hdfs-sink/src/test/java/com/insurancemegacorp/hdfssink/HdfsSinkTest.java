@@ -3,13 +3,26 @@ package com.insurancemegacorp.hdfssink;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class HdfsSinkTest {
 
+    @TempDir
+    File outputDir;
+
     @Test
     void testMeterRegistryInjection() {
         MeterRegistry meterRegistry = new SimpleMeterRegistry();
@@ -82,4 +95,737 @@ class HdfsSinkTest {
         assertTrue(smallPayload.length > 0);
         assertTrue(flatPayload.length > 50);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testColumnWritePlanMatchesSchema() {
+        ColumnWritePlan plan = TelemetrySchema.PLAN;
+        
+        assertEquals(33, plan.columns().size());
+        assertSame(TelemetrySchema.SCHEMA, plan.schema());
+        for (ColumnWritePlan.Column column : plan.columns()) {
+            assertEquals(column.fieldIndex(), plan.schema().getFieldIndex(column.name()));
+            assertEquals(column.type(), plan.schema().getType(column.fieldIndex()).asPrimitiveType().getPrimitiveTypeName());
+        }
+    }
+
+    @Test
+    void testIngestQueueBoundedByCount() throws Exception {
+        IngestQueue queue = new IngestQueue(2, 1024 * 1024);
+        
+        assertTrue(queue.offer(SinkMessage.unspooled("a"), 0, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(SinkMessage.unspooled("b"), 0, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(SinkMessage.unspooled("c"), 10, TimeUnit.MILLISECONDS));
+        
+        List<SinkMessage> batch = new ArrayList<>();
+        assertEquals(1, queue.drainTo(batch, 1));
+        assertTrue(queue.offer(SinkMessage.unspooled("c"), 0, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void testIngestQueueBoundedByBytesAndRequeuesInOrder() throws Exception {
+        String payload = "x".repeat(100);
+        IngestQueue queue = new IngestQueue(100, IngestQueue.weigh(SinkMessage.unspooled(payload)) * 2);
+        
+        assertTrue(queue.offer(SinkMessage.unspooled(payload), 0, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(SinkMessage.unspooled(payload), 0, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(SinkMessage.unspooled(payload), 0, TimeUnit.MILLISECONDS));
+        
+        List<SinkMessage> batch = new ArrayList<>();
+        assertEquals(2, queue.drainTo(batch, 10));
+        assertEquals(0, queue.bytes());
+        
+        queue.offer(SinkMessage.unspooled("later"), 0, TimeUnit.MILLISECONDS);
+        queue.requeueFirst(batch);
+        List<SinkMessage> drained = new ArrayList<>();
+        queue.drainTo(drained, 10);
+        assertEquals(batch.size() + 1, drained.size());
+        assertEquals(batch, drained.subList(0, batch.size()));
+        assertEquals("later", drained.get(drained.size() - 1).text());
+    }
+
+    @Test
+    void testIngestQueueAdmitsOversizedMessageWhenEmpty() throws Exception {
+        IngestQueue queue = new IngestQueue(10, 16);
+        assertTrue(queue.offer(SinkMessage.unspooled("x".repeat(1000)), 0, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(SinkMessage.unspooled("y"), 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testIngestQueueDrainsFullBatchWithoutWaitingForTimeout() throws Exception {
+        IngestQueue queue = new IngestQueue(100, 1024 * 1024);
+        List<SinkMessage> batch = new ArrayList<>();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    queue.offer(SinkMessage.unspooled("m" + i), 0, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        producer.start();
+        assertEquals(3, queue.drainTo(batch, 3, 30, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+
+        // A partial batch is handed over once the latency bound passes, and immediately once closed
+        queue.offer(SinkMessage.unspooled("late"), 0, TimeUnit.MILLISECONDS);
+        assertEquals(1, queue.drainTo(batch, 3, 50, TimeUnit.MILLISECONDS));
+        queue.offer(SinkMessage.unspooled("last"), 0, TimeUnit.MILLISECONDS);
+        queue.close();
+        assertEquals(1, queue.drainTo(batch, 3, 30, TimeUnit.SECONDS));
+        assertEquals(5, batch.size());
+    }
+
+    @Test
+    void testIngestQueueOfferAllStopsAtBudgetAndResumes() throws Exception {
+        IngestQueue queue = new IngestQueue(3, 1024 * 1024);
+        List<SinkMessage> batch = List.of(SinkMessage.unspooled("a"), SinkMessage.unspooled("b"),
+                SinkMessage.unspooled("c"), SinkMessage.unspooled("d"), SinkMessage.unspooled("e"));
+        
+        assertEquals(3, queue.offerAll(batch, 0, 10, TimeUnit.MILLISECONDS));
+        List<SinkMessage> drained = new ArrayList<>();
+        queue.drainTo(drained, 2);
+        assertEquals(2, queue.offerAll(batch, 3, 0, TimeUnit.MILLISECONDS));
+        queue.drainTo(drained, 10);
+        assertEquals(List.of("a", "b", "c", "d", "e"), drained.stream().map(SinkMessage::text).toList());
+    }
+
+    @Test
+    void testWriterPoolEvictsLeastRecentlyUsed() {
+        WriterPool pool = new WriterPool(2);
+        PartitionWriter a = new PartitionWriter("writer-A", "date=2024-01-15/driver_id=1", "a.parquet", null);
+        PartitionWriter b = new PartitionWriter("writer-A", "date=2024-01-15/driver_id=2", "b.parquet", null);
+        
+        assertNull(pool.evictIfFull());
+        pool.put(a);
+        pool.put(b);
+        
+        // Touch a so b becomes the least recently used writer
+        assertSame(a, pool.get(a.partition()));
+        assertSame(b, pool.evictIfFull());
+        assertEquals(1, pool.size());
+        assertNull(pool.evictIfFull());
+    }
+
+    @Test
+    void testWriterPoolRemovesIdleWriters() {
+        WriterPool pool = new WriterPool(4);
+        PartitionWriter writer = new PartitionWriter("writer-A", "date=2024-01-15", "a.parquet", null);
+        pool.put(writer);
+        
+        assertTrue(pool.removeIdle(writer.lastWriteTime()).isEmpty());
+        assertEquals(List.of(writer), pool.removeIdle(writer.lastWriteTime() + 1));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    void testWriterIdsStayReadableBeyondTwentySixLanes() {
+        assertEquals("writer-A", HdfsSink.writerIdFor(0));
+        assertEquals("writer-Z", HdfsSink.writerIdFor(25));
+        assertEquals("writer-AA", HdfsSink.writerIdFor(26));
+        assertEquals("writer-BA", HdfsSink.writerIdFor(52));
+    }
+
+    @Test
+    void testLaneControllerReactsOnlyToSustainedLoad() {
+        WriterLaneController controller = new WriterLaneController(1, 4, 100, 3);
+        
+        // A single burst is ignored
+        assertEquals(0, controller.evaluate(2, 500, 0.9));
+        assertEquals(0, controller.evaluate(2, 50, 0.9));
+        assertEquals(0, controller.evaluate(2, 500, 0.9));
+        assertEquals(0, controller.evaluate(2, 500, 0.9));
+        assertEquals(1, controller.evaluate(2, 500, 0.9));
+        // A deep queue with idle lanes is not a writer bottleneck
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, controller.evaluate(3, 5000, 0.2));
+        }
+        assertEquals(0, controller.evaluate(2, 0, 0.05));
+        assertEquals(0, controller.evaluate(2, 0, 0.05));
+        assertEquals(-1, controller.evaluate(2, 0, 0.05));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, controller.evaluate(1, 0, 0.05), "never below the minimum");
+        }
+    }
+
+    @Test
+    void testRetiredLaneLeavesItsFilesToTheOtherLanes() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.writers.min=1", "hdfs.writers.scaleSustainedIntervals=1", "hdfs.batch.size=10");
+        
+        for (int i = 0; i < 30; i++) {
+            sink.accept("{\"vehicle_id\":" + i + "}");
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (registry.counter("hdfs_messages_written_total").count() < 30 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Forget the time spent opening the first files so the interval reflects idle lanes
+        ((java.util.concurrent.atomic.AtomicLong) ReflectionTestUtils.getField(sink, "laneBusyNanos")).set(0);
+        Thread.sleep(100);
+        
+        sink.adjustWriterLanes();
+        assertEquals(2, sink.activeLaneCount());
+        Map<?, ?> threads = (Map<?, ?>) ReflectionTestUtils.getField(sink, "writerThreads");
+        while (threads.containsKey("writer-C")) {
+            assertTrue(System.currentTimeMillis() < deadline, "lane was not retired");
+            Thread.sleep(10);
+        }
+        assertEquals(1, registry.counter("hdfs_writer_lane_changes_total", "direction", "down").count());
+        assertNull(registry.find("hdfs_writer_buffered_bytes").tag("writer", "writer-C").gauge());
+        assertNotNull(registry.find("hdfs_writer_buffered_bytes").tag("writer", "writer-A").gauge());
+        // All lanes wrote to the partition's one file, which outlives the retired lane
+        assertEquals(1, registry.get("hdfs_open_writers").gauge().value());
+        assertEquals(0, registry.counter("hdfs_files_closed_total").count());
+        sink.shutdown();
+        
+        assertEquals(30, LocalSinkFixture.countRows(outputDir));
+    }
+
+    @Test
+    void testLanesShareOneWriterPerPartitionUpToMaxOpen() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.writers.count=3", "hdfs.writers.maxOpen=4", "hdfs.batch.size=10",
+                "hdfs.partitionPath='vehicle=' + payload.vehicle_id");
+        
+        for (int i = 0; i < 300; i++) {
+            sink.accept("{\"vehicle_id\":" + (i % 4) + "}");
+        }
+        awaitWritten(registry, 300);
+        // maxOpen bounds the sink, not each lane, and no lane opens a second file for a partition
+        assertEquals(4, registry.get("hdfs_open_writers").gauge().value());
+        assertEquals(0, registry.counter("hdfs_writers_evicted_total").count());
+        sink.shutdown();
+        
+        assertEquals(4, LocalSinkFixture.committedFiles(outputDir).size());
+        assertEquals(300, LocalSinkFixture.countRows(outputDir));
+    }
+    
+    @Test
+    void testRolledFilesAreCommittedUnderFinalNames() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir, "hdfs.file.maxMessages=100", "hdfs.batch.size=50");
+        
+        for (int i = 0; i < 250; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        sink.shutdown();
+        
+        List<Path> inProgress;
+        try (Stream<Path> files = Files.walk(outputDir.toPath())) {
+            inProgress = files.filter(p -> p.toString().endsWith(PartitionWriter.IN_PROGRESS_SUFFIX)).toList();
+        }
+        assertTrue(inProgress.isEmpty(), "in-progress files left behind: " + inProgress);
+        assertEquals(250, LocalSinkFixture.countRows(outputDir));
+        assertEquals(LocalSinkFixture.committedFiles(outputDir).size(), registry.counter("hdfs_files_closed_total").count());
+    }
+    
+    @Test
+    void testStartRejectsParquetSettingsForUnknownColumns() {
+        HdfsSink sink = LocalSinkFixture.newSink(new SimpleMeterRegistry(), outputDir,
+                "hdfs.parquet.columns.no_such_column.bloom-filter=true");
+        
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> LocalSinkFixture.start(sink));
+        assertTrue(e.getMessage().contains("no_such_column"), e.getMessage());
+    }
+
+    @Test
+    void testCommittedFilesAreIndexedInPartitionManifest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir, "hdfs.file.maxMessages=100", "hdfs.batch.size=50");
+        
+        for (int i = 0; i < 250; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"driver_id\":400018,\"event_time\":" + (1_705_314_645_000L + i) + "}");
+        }
+        sink.shutdown();
+        
+        File partition = outputDir.listFiles(File::isDirectory)[0];
+        org.apache.hadoop.fs.Path directory = new org.apache.hadoop.fs.Path(partition.toURI());
+        List<PartitionManifest.Entry> entries = PartitionManifest.read(
+                directory.getFileSystem(new org.apache.hadoop.conf.Configuration()), directory);
+        
+        assertEquals(registry.counter("hdfs_files_closed_total").count(), entries.size());
+        assertEquals(250, entries.stream().mapToLong(PartitionManifest.Entry::rows).sum());
+        for (PartitionManifest.Entry entry : entries) {
+            assertEquals(new File(partition, entry.file()).length(), entry.bytes(), entry.file());
+            assertEquals(400018L, entry.minDriverId());
+            assertTrue(entry.overlapsEventTime(1_705_314_645_000L, 1_705_314_645_249L));
+        }
+        assertEquals(0L, entries.stream().mapToLong(PartitionManifest.Entry::minVehicleId).min().orElseThrow());
+        assertEquals(249L, entries.stream().mapToLong(PartitionManifest.Entry::maxVehicleId).max().orElseThrow());
+    }
+    
+    @Test
+    void testOnlyFilesTheCompactorWouldMergeQueueTheirPartition() throws Exception {
+        // A handful of rows, but with its footer the file is well over a 1 KB threshold
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, new File(outputDir, "large"),
+                "hdfs.compaction.enabled=true", "hdfs.compaction.smallFileMB=0.001");
+        for (int i = 0; i < 5; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        sink.shutdown();
+        assertEquals(1, registry.counter("hdfs_files_closed_total").count());
+        assertEquals(0, registry.get("hdfs_compaction_pending_partitions").gauge().value());
+        
+        registry = new SimpleMeterRegistry();
+        sink = LocalSinkFixture.startSink(registry, new File(outputDir, "small"), "hdfs.compaction.enabled=true");
+        for (int i = 0; i < 5; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        sink.shutdown();
+        assertEquals(1, registry.get("hdfs_compaction_pending_partitions").gauge().value());
+    }
+    
+    @Test
+    void testBatchConsumerWritesRawPayloads() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir);
+        
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            payloads.add(("{\"vehicle_id\":" + i + ",\"current_street\":\"Calle Mayor Ñ\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        payloads.add("not json".getBytes(StandardCharsets.UTF_8));
+        sink.acceptBatch(org.springframework.messaging.support.MessageBuilder.withPayload(payloads).build());
+        sink.shutdown();
+        
+        List<String> streets = LocalSinkFixture.readRows(outputDir).stream()
+                .map(group -> group.getString("current_street", 0))
+                .toList();
+        assertEquals(40, streets.size());
+        assertTrue(streets.stream().allMatch("Calle Mayor Ñ"::equals));
+        assertEquals(41, registry.counter("hdfs_messages_received_total").count());
+        assertEquals(1, registry.counter("hdfs_invalid_messages_total").count());
+    }
+    
+    @Test
+    void testManualAcksWaitForFileCommit() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir);
+        com.rabbitmq.client.Channel channel = org.mockito.Mockito.mock(com.rabbitmq.client.Channel.class);
+        org.mockito.Mockito.when(channel.isOpen()).thenReturn(true);
+        
+        List<byte[]> payloads = new ArrayList<>();
+        List<Map<String, Object>> headers = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            payloads.add(("{\"vehicle_id\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+            headers.add(Map.of("amqp_deliveryTag", (long) i));
+        }
+        payloads.add("not json".getBytes(StandardCharsets.UTF_8));
+        headers.add(Map.of("amqp_deliveryTag", 41L));
+        sink.acceptBatch(org.springframework.messaging.support.MessageBuilder.withPayload(payloads)
+                .setHeader("amqp_channel", channel)
+                .setHeader("amqp_batchedHeaders", headers)
+                .build());
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_messages_written_total").count() < 41 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // Written but only in an open file: the invalid message alone is settled, behind 1..40
+        assertEquals(41, registry.get("hdfs_unacked_messages").gauge().value());
+        org.mockito.Mockito.verify(channel, org.mockito.Mockito.never())
+                .basicAck(org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyBoolean());
+        
+        sink.shutdown();
+        org.mockito.Mockito.verify(channel).basicAck(41, true);
+        assertEquals(41, registry.counter("hdfs_messages_acked_total").count());
+        assertEquals(0, registry.get("hdfs_unacked_messages").gauge().value());
+    }
+    
+    @Test
+    void testFailedCommitHandsManualAckDeliveriesBackToTheBrokerOnly() throws Exception {
+        File spoolDir = new File(outputDir, "spool");
+        File output = new File(outputDir, "output");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, output,
+                "hdfs.spool.enabled=true", "hdfs.spool.directory=" + spoolDir.getAbsolutePath(), "hdfs.spool.segmentSizeMB=1");
+        com.rabbitmq.client.Channel channel = org.mockito.Mockito.mock(com.rabbitmq.client.Channel.class);
+        org.mockito.Mockito.when(channel.isOpen()).thenReturn(true);
+        
+        List<byte[]> payloads = new ArrayList<>();
+        List<Map<String, Object>> headers = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            payloads.add(("{\"vehicle_id\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+            headers.add(Map.of("amqp_deliveryTag", (long) i));
+        }
+        sink.acceptBatch(org.springframework.messaging.support.MessageBuilder.withPayload(payloads)
+                .setHeader("amqp_channel", channel)
+                .setHeader("amqp_batchedHeaders", headers)
+                .build());
+        awaitWritten(registry, 20);
+        // The broker holds these until they are acked, so the spool keeps no second copy
+        assertEquals(0, registry.get("hdfs_spool_pending_messages").gauge().value());
+        
+        // Losing the in-progress files makes every commit fail at the rename
+        try (Stream<Path> files = Files.walk(output.toPath())) {
+            for (Path file : files.filter(p -> p.toString().endsWith(PartitionWriter.IN_PROGRESS_SUFFIX)).toList()) {
+                Files.delete(file);
+            }
+        }
+        assertTrue(sink.rollAllWriters("test") > 0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.get("hdfs_unacked_messages").gauge().value() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.counter("hdfs_file_close_failures_total").count() >= 1);
+        assertEquals(20, registry.counter("hdfs_messages_requeued_total").count());
+        org.mockito.Mockito.verify(channel, org.mockito.Mockito.times(20))
+                .basicNack(org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.eq(false), org.mockito.ArgumentMatchers.eq(true));
+        org.mockito.Mockito.verify(channel, org.mockito.Mockito.never())
+                .basicAck(org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyBoolean());
+        sink.shutdown();
+        
+        // Nothing left for a restart to replay on top of the broker's redelivery
+        try (WriteAheadSpool spool = new WriteAheadSpool(spoolDir.toPath(), 1024 * 1024, false)) {
+            assertTrue(spool.recover().isEmpty());
+        }
+        assertEquals(0, LocalSinkFixture.countRows(output));
+    }
+
+    @Test
+    void testRecordTakenBeforeAFailedRowGroupFlushIsNotRetried() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // A row group flushed at every size check, which Parquet makes each 100 records
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.writers.count=1", "hdfs.batch.size=50", "hdfs.parquet.rowGroupSize=1",
+                "hdfs.retry.initialBackoffMs=20", "hdfs.retry.maxBackoffMs=100");
+        java.util.concurrent.atomic.AtomicBoolean failWrites = new java.util.concurrent.atomic.AtomicBoolean();
+        ManagedFileSystem local = (ManagedFileSystem) ReflectionTestUtils.getField(sink, "fileSystem");
+        org.apache.hadoop.conf.Configuration conf = local.configuration();
+        ReflectionTestUtils.setField(sink, "fileSystem",
+                new ManagedFileSystem(conf, () -> failingWrites(org.apache.hadoop.fs.FileSystem.newInstance(java.net.URI.create("file:///"), conf), failWrites), 3, registry));
+        local.close();
+        com.rabbitmq.client.Channel channel = org.mockito.Mockito.mock(com.rabbitmq.client.Channel.class);
+        org.mockito.Mockito.when(channel.isOpen()).thenReturn(true);
+        java.util.Set<Long> nacked = java.util.concurrent.ConcurrentHashMap.newKeySet();
+        org.mockito.Mockito.doAnswer(invocation -> nacked.add(invocation.getArgument(0)))
+                .when(channel).basicNack(org.mockito.ArgumentMatchers.anyLong(), org.mockito.ArgumentMatchers.anyBoolean(), org.mockito.ArgumentMatchers.anyBoolean());
+
+        try {
+            sendTagged(sink, channel, 1, 150);
+            awaitWritten(registry, 150);
+
+            // The flush at the writer's 200th record fails with rows 101..200 buffered
+            failWrites.set(true);
+            sendTagged(sink, channel, 151, 250);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((nacked.isEmpty() || registry.counter("hdfs_write_retries_total").count() < 1) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(registry.counter("hdfs_write_retries_total").count() >= 1);
+        } finally {
+            failWrites.set(false);
+        }
+        // A shutdown during the retry backoff would leave the requeued messages to the broker
+        double written = registry.counter("hdfs_messages_written_total").count();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((registry.counter("hdfs_messages_written_total").count() == written
+                || registry.get("hdfs_queue_depth").gauge().value() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        sink.shutdown();
+
+        // The failed file's deliveries, the record that hit the flush included, go back to the
+        // broker; only the rest of its batch is retried and written
+        List<Long> vehicles = LocalSinkFixture.readRows(outputDir).stream().map(group -> group.getLong("vehicle_id", 0)).toList();
+        assertTrue(nacked.size() > 100, "nacked " + nacked.size());
+        assertFalse(vehicles.isEmpty());
+        assertTrue(vehicles.stream().noneMatch(nacked::contains), "written and nacked: " + vehicles);
+        java.util.Set<Long> delivered = new java.util.TreeSet<>(nacked);
+        delivered.addAll(vehicles);
+        assertEquals(250, delivered.size());
+        assertEquals(250, vehicles.size() + nacked.size());
+    }
+
+    private static void sendTagged(HdfsSink sink, com.rabbitmq.client.Channel channel, long first, long last) {
+        List<byte[]> payloads = new ArrayList<>();
+        List<Map<String, Object>> headers = new ArrayList<>();
+        for (long tag = first; tag <= last; tag++) {
+            payloads.add(("{\"vehicle_id\":" + tag + "}").getBytes(StandardCharsets.UTF_8));
+            headers.add(Map.of("amqp_deliveryTag", tag));
+        }
+        sink.acceptBatch(org.springframework.messaging.support.MessageBuilder.withPayload(payloads)
+                .setHeader("amqp_channel", channel)
+                .setHeader("amqp_batchedHeaders", headers)
+                .build());
+    }
+
+    /**
+     * {@code fs} with every byte written to a file it creates failing while {@code fail} is set.
+     */
+    private static org.apache.hadoop.fs.FileSystem failingWrites(org.apache.hadoop.fs.FileSystem fs, java.util.concurrent.atomic.AtomicBoolean fail) {
+        return new org.apache.hadoop.fs.FilterFileSystem(fs) {
+            @Override
+            public org.apache.hadoop.fs.FSDataOutputStream create(org.apache.hadoop.fs.Path path, org.apache.hadoop.fs.permission.FsPermission permission,
+                    boolean overwrite, int bufferSize, short replication, long blockSize, org.apache.hadoop.util.Progressable progress) throws java.io.IOException {
+                java.io.OutputStream out = super.create(path, permission, overwrite, bufferSize, replication, blockSize, progress);
+                return new org.apache.hadoop.fs.FSDataOutputStream(new java.io.FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws java.io.IOException {
+                        check();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws java.io.IOException {
+                        check();
+                        out.write(b, off, len);
+                    }
+
+                    private void check() throws java.io.IOException {
+                        if (fail.get()) {
+                            throw new java.io.IOException("injected write failure");
+                        }
+                    }
+                }, null);
+            }
+        };
+    }
+
+    @Test
+    void testManualAckPrefetchCoversAFilePerLaneAndTheQueue() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        assertEquals(HdfsSink.MAX_PREFETCH, LocalSinkFixture.newSink(registry, outputDir).manualAckPrefetch());
+        
+        assertEquals(3 * 1000 + 20_000,
+                LocalSinkFixture.newSink(registry, outputDir, "hdfs.file.maxMessages=1000").manualAckPrefetch());
+        
+        assertEquals(500, LocalSinkFixture.newSink(registry, outputDir,
+                "hdfs.file.maxMessages=1000", "hdfs.ack.prefetch=500").manualAckPrefetch());
+    }
+    
+    @Test
+    void testVisibilityLatencyCommitsOpenFiles() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir, "hdfs.visibility.latencySeconds=1");
+        
+        for (int i = 0; i < 30; i++) {
+            sink.accept("{\"vehicle_id\":" + i + "}");
+        }
+        
+        // Well below every roll limit, so only the freshness target can commit these rows
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        long readable = 0;
+        while (readable < 30 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            readable = LocalSinkFixture.countRows(outputDir);
+        }
+        assertEquals(30, readable);
+        assertTrue(registry.counter("hdfs_visibility_commits_total").count() >= 1);
+        sink.shutdown();
+    }
+    
+    @Test
+    void testMemoryBudgetRollsLargestWriter() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.partitionPath='vehicle=' + payload.vehicle_id", "hdfs.memory.budgetMB=0.01");
+        
+        for (int i = 0; i < 600; i++) {
+            sink.accept("{\"vehicle_id\":" + (i % 3) + ",\"vin\":\"VIN-" + i + "\",\"g_force\":" + i + ".5}");
+        }
+        sink.shutdown();
+        
+        // A few KB of row group per writer already exceeds a 10 KB budget shared by three
+        assertTrue(registry.counter("hdfs_memory_budget_rolls_total").count() >= 1);
+        assertEquals(0, registry.get("hdfs_buffered_bytes").gauge().value());
+        assertEquals(600, LocalSinkFixture.countRows(outputDir));
+    }
+    
+    @Test
+    void testWatermarkClosesEventDaysAndCountsLateRecords() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.partitionPath='date=' + T(java.time.LocalDate).now().toString()",
+                "hdfs.partition.byEventTime=true", "hdfs.partition.allowedLatenessMinutes=60");
+        java.time.ZoneId zone = java.time.ZoneId.systemDefault();
+        java.time.Instant dayOne = java.time.Instant.parse("2024-01-15T12:00:00Z");
+        java.time.Instant dayTwo = dayOne.plus(java.time.Duration.ofDays(1));
+        
+        sink.accept("{\"vehicle_id\":1,\"event_time\":\"" + dayOne + "\"}");
+        awaitWritten(registry, 1);
+        sink.accept("{\"vehicle_id\":2,\"event_time\":\"" + dayTwo + "\"}");
+        awaitWritten(registry, 2);
+        assertEquals(0, registry.counter("hdfs_late_records_total").count());
+        
+        // Day two at noon is well past the end of day one plus an hour of lateness
+        sink.accept("{\"vehicle_id\":3,\"event_time\":\"" + dayOne + "\"}");
+        awaitWritten(registry, 3);
+        assertEquals(1, registry.counter("hdfs_late_records_total").count());
+        
+        sink.checkFileRolling();
+        File dayOneDir = new File(outputDir, "date=" + dayOne.atZone(zone).toLocalDate());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        long dayOneRows = 0;
+        while (dayOneRows < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            dayOneRows = LocalSinkFixture.countRows(dayOneDir);
+        }
+        // Day one is committed by the watermark while day two is still open
+        assertEquals(2, dayOneRows);
+        assertTrue(LocalSinkFixture.committedFiles(new File(outputDir, "date=" + dayTwo.atZone(zone).toLocalDate())).isEmpty());
+        sink.shutdown();
+    }
+    
+    @Test
+    void testFailedBatchesAreRequeuedUntilEveryRowIsWritten() throws Exception {
+        // A regular file where the output directory should be makes every create fail
+        File output = new File(outputDir, "unavailable");
+        Files.writeString(output.toPath(), "not a directory");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.outputPath=" + output.getAbsolutePath(), "hdfs.batch.size=10",
+                "hdfs.spool.enabled=true", "hdfs.spool.directory=" + new File(outputDir, "spool").getAbsolutePath(),
+                "hdfs.spool.segmentSizeMB=1", "hdfs.retry.initialBackoffMs=20", "hdfs.retry.maxBackoffMs=50");
+        
+        for (int i = 0; i < 50; i++) {
+            sink.accept("{\"vehicle_id\":" + i + "}");
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_writer_failures_total").count() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.counter("hdfs_writer_failures_total").count() >= 3);
+        assertEquals(0, registry.counter("hdfs_messages_written_total").count());
+        assertEquals(50, registry.get("hdfs_spool_pending_messages").gauge().value());
+        
+        Files.delete(output.toPath());
+        Files.createDirectory(output.toPath());
+        awaitWritten(registry, 50);
+        // Once committed the spooled copies are released rather than replayed on restart
+        assertTrue(sink.rollAllWriters("test") > 0);
+        while (registry.get("hdfs_spool_pending_messages").gauge().value() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, registry.get("hdfs_spool_pending_messages").gauge().value());
+        sink.shutdown();
+        
+        assertEquals(50, LocalSinkFixture.countRows(output));
+    }
+    
+    @Test
+    void testFailedWritesBackOffOpenTheCircuitAndRetryInOrder() throws Exception {
+        // A regular file where the output directory should be makes every create fail
+        File output = new File(outputDir, "unavailable");
+        Files.writeString(output.toPath(), "not a directory");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.outputPath=" + output.getAbsolutePath(), "hdfs.batch.size=10", "hdfs.writers.count=1",
+                "hdfs.retry.initialBackoffMs=20", "hdfs.retry.maxBackoffMs=100", "hdfs.retry.circuitFailureThreshold=2");
+        
+        for (int i = 0; i < 30; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_write_retries_total").count() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(WriteCircuitBreaker.State.OPEN, sink.writeCircuit().state());
+        assertTrue(registry.get("hdfs_write_circuit_opened_total").functionCounter().count() >= 1);
+        assertEquals(2.0, registry.get("hdfs_write_circuit_state").gauge().value());
+        assertEquals(0, registry.counter("hdfs_messages_written_total").count());
+        
+        // HDFS comes back: the next probe succeeds and the held messages are written in order
+        Files.delete(output.toPath());
+        Files.createDirectory(output.toPath());
+        awaitWritten(registry, 30);
+        assertEquals(WriteCircuitBreaker.State.CLOSED, sink.writeCircuit().state());
+        sink.shutdown();
+        
+        List<Long> vehicles = LocalSinkFixture.readRows(output).stream().map(group -> group.getLong("vehicle_id", 0)).toList();
+        assertEquals(java.util.stream.LongStream.range(0, 30).boxed().toList(), vehicles);
+    }
+    
+    @Test
+    void testStagedFilesAreUploadedOnceHdfsAcceptsThem() throws Exception {
+        File output = new File(outputDir, "unavailable");
+        Files.writeString(output.toPath(), "not a directory");
+        File stagingDir = new File(outputDir, "staging");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir,
+                "hdfs.outputPath=" + output.getAbsolutePath(),
+                "hdfs.staging.enabled=true", "hdfs.staging.directory=" + stagingDir.getAbsolutePath(),
+                "hdfs.file.maxMessages=100", "hdfs.batch.size=50",
+                "hdfs.retry.initialBackoffMs=20", "hdfs.retry.maxBackoffMs=100");
+        
+        for (int i = 0; i < 250; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        // Writers are unaffected by the failing uploads; the rolled files wait on local disk
+        awaitWritten(registry, 250);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_staged_upload_failures_total").count() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.counter("hdfs_staged_upload_failures_total").count() >= 2);
+        assertEquals(0, registry.counter("hdfs_files_closed_total").count());
+        assertTrue(stagedFiles(stagingDir).stream().anyMatch(p -> !p.toString().endsWith(PartitionWriter.IN_PROGRESS_SUFFIX)));
+        
+        // HDFS comes back: the next retry uploads the sealed files and drops the local copies
+        Files.delete(output.toPath());
+        Files.createDirectory(output.toPath());
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (stagedFiles(stagingDir).stream().anyMatch(p -> !p.toString().endsWith(PartitionWriter.IN_PROGRESS_SUFFIX))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.counter("hdfs_files_closed_total").count() > 0);
+        sink.shutdown();
+        
+        assertEquals(250, LocalSinkFixture.countRows(output));
+        assertEquals(LocalSinkFixture.committedFiles(output).size(), registry.counter("hdfs_files_closed_total").count());
+        assertTrue(stagedFiles(stagingDir).isEmpty(), "staged files left behind: " + stagedFiles(stagingDir));
+    }
+    
+    private static List<Path> stagedFiles(File stagingDir) throws Exception {
+        try (Stream<Path> files = Files.walk(stagingDir.toPath())) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+    
+    @Test
+    void testEndpointShowsOpenWritersAndForcesARoll() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir, "hdfs.batch.size=10");
+        HdfsSinkEndpoint endpoint = new HdfsSinkEndpoint(sink);
+        assertTrue(endpoint.snapshot().writers().isEmpty());
+        assertNull(endpoint.snapshot().lastCommit());
+        
+        for (int i = 0; i < 40; i++) {
+            sink.accept("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\"}");
+        }
+        awaitWritten(registry, 40);
+        HdfsSinkEndpoint.Snapshot open = endpoint.snapshot();
+        assertFalse(open.writers().isEmpty());
+        assertEquals(40, open.writers().stream().mapToInt(HdfsSinkEndpoint.WriterState::rows).sum());
+        assertEquals(0, open.queueDepth());
+        assertEquals("CLOSED", open.writeCircuit());
+        assertTrue(open.writers().stream().allMatch(w -> w.filePath().startsWith(outputDir.getAbsolutePath())));
+        
+        assertEquals(Map.of("rolled", open.writers().size()), endpoint.roll());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_files_closed_total").count() < open.writers().size() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        HdfsSinkEndpoint.Snapshot rolled = endpoint.snapshot();
+        assertTrue(rolled.writers().isEmpty());
+        assertEquals("forced", rolled.lastRoll().reason());
+        assertNotNull(rolled.lastCommit());
+        assertTrue(rolled.secondsSinceLastCommit() >= 0);
+        sink.shutdown();
+    }
+    
+    private static void awaitWritten(SimpleMeterRegistry registry, int messages) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.counter("hdfs_messages_written_total").count() < messages && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.parquet.example.data.Group;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.annotation.QualifierAnnotationAutowireCandidateResolver;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Builds an {@link HdfsSink} that writes to the local {@code file://} filesystem, configured
+ * through the same {@code hdfs.*} properties as the application, and reads back what it
+ * committed. Shared by the sink's integration tests and the pipeline benchmarks.
+ */
+final class LocalSinkFixture {
+
+    private LocalSinkFixture() {
+    }
+
+    /**
+     * A sink writing below {@code outputDir}, with small-file compaction off and file limits
+     * high enough that only the test decides when files roll. {@code properties} are
+     * {@code key=value} pairs that override these and the application defaults.
+     */
+    static HdfsSink newSink(MeterRegistry registry, File outputDir, String... properties) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("hdfs.namenodeUri", "file:///");
+        values.put("hdfs.outputPath", outputDir.getAbsolutePath());
+        values.put("hdfs.user", System.getProperty("user.name"));
+        values.put("hdfs.replicationFactor", "1");
+        values.put("hdfs.file.maxSizeMB", "128");
+        values.put("hdfs.file.maxMessages", "100000");
+        values.put("hdfs.batch.timeoutSeconds", "1");
+        values.put("hdfs.compaction.enabled", "false");
+        for (String property : properties) {
+            int separator = property.indexOf('=');
+            values.put(property.substring(0, separator), property.substring(separator + 1));
+        }
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("localSink", values));
+
+        // Resolves the sink's @Value fields the way the application context does, without
+        // running its @PostConstruct method; start() runs it
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.setAutowireCandidateResolver(new QualifierAnnotationAutowireCandidateResolver());
+        beanFactory.addEmbeddedValueResolver(environment::resolveRequiredPlaceholders);
+        AutowiredAnnotationBeanPostProcessor autowiring = new AutowiredAnnotationBeanPostProcessor();
+        autowiring.setBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(autowiring);
+        beanFactory.registerSingleton("meterRegistry", registry);
+        beanFactory.registerSingleton("parquetProperties", new Binder(ConfigurationPropertySources.from(environment.getPropertySources()))
+                .bindOrCreate("hdfs.parquet", HdfsParquetProperties.class));
+        return beanFactory.createBean(HdfsSink.class);
+    }
+
+    static HdfsSink start(HdfsSink sink) {
+        sink.initialize();
+        sink.validateHdfsConnection();
+        return sink;
+    }
+
+    static HdfsSink startSink(MeterRegistry registry, File outputDir, String... properties) {
+        return start(newSink(registry, outputDir, properties));
+    }
+
+    /**
+     * Committed Parquet files anywhere below {@code dir}; hidden in-progress files and
+     * manifests are skipped.
+     */
+    static List<Path> committedFiles(File dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            return files.filter(p -> p.getFileName().toString().matches("telemetry-.*\\.parquet")).toList();
+        }
+    }
+
+    static List<Group> readRows(File dir) throws Exception {
+        List<Group> rows = new ArrayList<>();
+        for (Path file : committedFiles(dir)) {
+            rows.addAll(TelemetryWriteSupportTest.readGroups(new org.apache.hadoop.fs.Path(file.toUri())));
+        }
+        return rows;
+    }
+
+    static long countRows(File dir) throws Exception {
+        return readRows(dir).size();
+    }
+}
@@ -0,0 +1,46 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalStagingTest {
+
+    @TempDir
+    File stagingDir;
+
+    @Test
+    void testStagedTreeMirrorsTheOutputTree() throws Exception {
+        LocalStaging staging = new LocalStaging(new Configuration(), stagingDir.getPath(), "/data/telemetry/");
+        String filePath = "/data/telemetry/date=2024-01-15/telemetry-1.parquet";
+
+        assertEquals(new File(stagingDir, "date=2024-01-15/.telemetry-1.parquet.inprogress").toURI().getPath(),
+                staging.inProgressPathFor(filePath).toUri().getPath());
+        assertEquals(new File(stagingDir, "date=2024-01-15/telemetry-1.parquet").toURI().getPath(),
+                staging.sealedPathFor(filePath).toUri().getPath());
+        assertThrows(IllegalArgumentException.class, () -> staging.sealedPathFor("/elsewhere/telemetry-1.parquet"));
+    }
+
+    @Test
+    void testRecoveryKeepsSealedFilesAndDropsPartialOnes() throws Exception {
+        Path partition = Files.createDirectories(stagingDir.toPath().resolve("date=2024-01-15"));
+        Files.writeString(partition.resolve("telemetry-1.parquet"), "sealed");
+        Files.writeString(partition.resolve(".telemetry-2.parquet.inprogress"), "partial");
+
+        LocalStaging staging = new LocalStaging(new Configuration(), stagingDir.getPath(), "/data/telemetry");
+        List<String> sealed = staging.recover();
+
+        assertEquals(List.of("/data/telemetry/date=2024-01-15/telemetry-1.parquet"), sealed);
+        assertFalse(Files.exists(partition.resolve(".telemetry-2.parquet.inprogress")));
+
+        staging.delete(sealed.get(0));
+        assertTrue(staging.recover().isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ManagedFileSystemTest {
+
+    @Test
+    void testClientIsReusedAndNotSharedWithTheHadoopCache() throws Exception {
+        Configuration conf = new Configuration();
+        ManagedFileSystem fileSystem = new ManagedFileSystem(URI.create("file:///"), conf, 3, new SimpleMeterRegistry());
+
+        FileSystem fs = fileSystem.get();
+        assertSame(fs, fileSystem.get());
+        assertNotSame(FileSystem.get(URI.create("file:///"), conf), fs);
+        assertTrue(fileSystem.checkHealth());
+        assertSame(fs, fileSystem.get());
+
+        fileSystem.close();
+        assertThrows(IOException.class, fileSystem::get);
+        // Closing the managed client leaves the JVM-wide cached one usable
+        assertTrue(FileSystem.get(URI.create("file:///"), conf).exists(new Path("/")));
+    }
+
+    @Test
+    void testClientIsReplacedOnlyAfterConsecutiveFailedHealthChecks() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        List<FileSystem> opened = new ArrayList<>();
+        ManagedFileSystem fileSystem = new ManagedFileSystem(new Configuration(), () -> {
+            FileSystem fs = mock(FileSystem.class);
+            opened.add(fs);
+            return fs;
+        }, 2, registry);
+
+        FileSystem first = fileSystem.get();
+        assertTrue(fileSystem.checkHealth());
+        when(first.getFileStatus(any(Path.class)))
+                .thenThrow(new IOException("Read timed out"))
+                .thenReturn(null)
+                .thenThrow(new IOException("Connection refused"));
+
+        // A success in between resets the count
+        assertFalse(fileSystem.checkHealth());
+        assertTrue(fileSystem.checkHealth());
+        assertFalse(fileSystem.checkHealth());
+        assertSame(first, fileSystem.get());
+        verify(first, never()).close();
+
+        assertFalse(fileSystem.checkHealth());
+        verify(first).close();
+        FileSystem second = fileSystem.get();
+        assertNotSame(first, second);
+        assertSame(second, fileSystem.get());
+        assertEquals(2, opened.size());
+        assertEquals(3, registry.counter("hdfs_filesystem_health_check_failures_total").count());
+        assertEquals(1, registry.counter("hdfs_filesystem_recreated_total").count());
+    }
+
+    @Test
+    void testReplacedClientStaysOpenUntilItsLeasesAreReleased() throws Exception {
+        ManagedFileSystem fileSystem = new ManagedFileSystem(new Configuration(), () -> mock(FileSystem.class), 1, new SimpleMeterRegistry());
+
+        ManagedFileSystem.Lease openFile = fileSystem.lease();
+        ManagedFileSystem.Lease otherFile = fileSystem.lease();
+        FileSystem first = openFile.fileSystem();
+        when(first.getFileStatus(any(Path.class))).thenThrow(new IOException("Connection refused"));
+        assertFalse(fileSystem.checkHealth());
+
+        // New files go to a fresh client while the open ones finish on the old
+        assertNotSame(first, fileSystem.get());
+        openFile.close();
+        openFile.close();
+        verify(first, never()).close();
+        otherFile.close();
+        verify(first).close();
+
+        // The current client is not closed when its last lease goes
+        FileSystem second = fileSystem.get();
+        fileSystem.lease().close();
+        verify(second, never()).close();
+        fileSystem.close();
+        verify(second).close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Per-message metering cost of looking meters up in the registry on every message, as the
+ * sink used to, against incrementing handles resolved once at startup. Each iteration
+ * meters one message the way {@link HdfsSink#accept} does: a counter increment and a
+ * timer recording.
+ *
+ * Skipped by default; run with {@code mvn test -Dtest=MeterHandleBenchmarkTest -Dhdfs.benchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "hdfs.benchmark", matches = "true")
+class MeterHandleBenchmarkTest {
+
+    private static final int MESSAGES = Integer.getInteger("hdfs.benchmark.messages", 5_000_000);
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Metering {
+        void meter(long startNanos);
+    }
+
+    private static Metering perMessageLookup(MeterRegistry registry) {
+        return startNanos -> {
+            Timer.Sample sample = Timer.start(registry);
+            registry.counter("hdfs_messages_received_total").increment();
+            sample.stop(Timer.builder("hdfs_message_processing_duration")
+                .description("Time taken to queue message for HDFS processing")
+                .register(registry));
+        };
+    }
+
+    private static Metering cachedHandles(MeterRegistry registry) {
+        Counter received = registry.counter("hdfs_messages_received_total");
+        Timer processing = Timer.builder("hdfs_message_processing_duration")
+            .description("Time taken to queue message for HDFS processing")
+            .register(registry);
+        return startNanos -> {
+            received.increment();
+            processing.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        };
+    }
+
+    @Test
+    void benchmarkPerMessageLookupAgainstCachedHandles() {
+        SimpleMeterRegistry lookupRegistry = new SimpleMeterRegistry();
+        SimpleMeterRegistry cachedRegistry = new SimpleMeterRegistry();
+        Metering lookup = perMessageLookup(lookupRegistry);
+        Metering cached = cachedHandles(cachedRegistry);
+
+        // Alternate the variants so neither benefits from running later in a warmer JVM
+        for (int round = 0; round < ROUNDS; round++) {
+            report("registry lookup", round, lookup);
+            report("cached handles ", round, cached);
+        }
+
+        assertEquals((double) ROUNDS * MESSAGES, lookupRegistry.counter("hdfs_messages_received_total").count());
+        assertEquals((double) ROUNDS * MESSAGES, cachedRegistry.counter("hdfs_messages_received_total").count());
+    }
+
+    private static void report(String variant, int round, Metering metering) {
+        long thread = Thread.currentThread().threadId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            metering.meter(System.nanoTime());
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        // The first round is JIT warm-up and only printed for completeness
+        System.out.printf("%s round %d: %.1f ns/message, %.1f bytes allocated/message%n",
+                variant, round, (double) elapsed / MESSAGES, (double) allocated / MESSAGES);
+    }
+}
@@ -0,0 +1,109 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Bytes per record and write throughput of each {@code hdfs.parquet} profile on a
+ * synthetic but realistically distributed telemetry stream. Throughput includes JSON
+ * parsing, which costs the same for every profile.
+ *
+ * Skipped by default; run with {@code mvn test -Dtest=ParquetProfileBenchmarkTest -Dhdfs.benchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "hdfs.benchmark", matches = "true")
+class ParquetProfileBenchmarkTest {
+
+    private static final int RECORDS = Integer.getInteger("hdfs.benchmark.records", 200_000);
+    private static final int DRIVERS = 500;
+
+    @TempDir
+    File tempDir;
+
+    private static Map<String, Consumer<HdfsParquetProperties>> profiles() {
+        Map<String, Consumer<HdfsParquetProperties>> profiles = new LinkedHashMap<>();
+        profiles.put("snappy (default)", p -> { });
+        profiles.put("uncompressed", p -> p.setCodec(CompressionCodecName.UNCOMPRESSED));
+        profiles.put("gzip", p -> p.setCodec(CompressionCodecName.GZIP));
+        profiles.put("zstd-1", p -> { p.setCodec(CompressionCodecName.ZSTD); p.setZstdLevel(1); });
+        profiles.put("zstd-3", p -> p.setCodec(CompressionCodecName.ZSTD));
+        profiles.put("zstd-9", p -> { p.setCodec(CompressionCodecName.ZSTD); p.setZstdLevel(9); });
+        profiles.put("zstd-3 no dictionary", p -> { p.setCodec(CompressionCodecName.ZSTD); p.setDictionaryEnabled(false); });
+        profiles.put("zstd-3 no bloom filters", p -> { p.setCodec(CompressionCodecName.ZSTD); p.getColumns().clear(); });
+        profiles.put("zstd-3 no dict, no bloom", p -> { p.setCodec(CompressionCodecName.ZSTD); p.setDictionaryEnabled(false); p.getColumns().clear(); });
+        profiles.put("zstd-3 256KB pages", p -> { p.setCodec(CompressionCodecName.ZSTD); p.setPageSize(256 * 1024); });
+        return profiles;
+    }
+
+    private static String[] messages() {
+        Random random = new Random(42);
+        String[] messages = new String[RECORDS];
+        long eventTime = 1_705_312_245_123L;
+        for (int i = 0; i < RECORDS; i++) {
+            int driver = random.nextInt(DRIVERS);
+            eventTime += random.nextInt(20);
+            messages[i] = String.format(Locale.ROOT,
+                    "{\"policy_id\":%d,\"vehicle_id\":%d,\"vin\":\"1HGBH41JXMN%06d\",\"event_time\":\"%s\","
+                            + "\"speed_mph\":%.1f,\"speed_limit_mph\":%d,\"current_street\":\"Street %d\",\"g_force\":%.2f,"
+                            + "\"driver_id\":\"DRIVER-%d\",\"gps_latitude\":%.6f,\"gps_longitude\":%.6f,\"gps_altitude\":%.2f,"
+                            + "\"gps_speed\":%.1f,\"gps_bearing\":%.2f,\"gps_accuracy\":%.1f,\"gps_satellite_count\":%d,"
+                            + "\"accelerometer_x\":%.4f,\"accelerometer_y\":%.4f,\"accelerometer_z\":%.4f,"
+                            + "\"device_battery_level\":%d,\"device_signal_strength\":%d,\"device_screen_on\":%b,\"device_charging\":%b}",
+                    200_000 + driver, 300_000 + driver, driver, java.time.Instant.ofEpochMilli(eventTime),
+                    random.nextDouble() * 70, 25 + 10 * random.nextInt(5), random.nextInt(200), 0.8 + random.nextDouble() * 0.8,
+                    400_000 + driver, 33.7 + random.nextDouble() * 0.2, -84.4 + random.nextDouble() * 0.2, 300 + random.nextDouble() * 60,
+                    random.nextDouble() * 30, random.nextDouble() * 360, 1 + random.nextDouble() * 4, 6 + random.nextInt(8),
+                    random.nextGaussian() * 0.1, random.nextGaussian() * 0.1, 0.98 + random.nextGaussian() * 0.01,
+                    random.nextInt(100), -50 - random.nextInt(60), random.nextBoolean(), random.nextInt(10) == 0);
+        }
+        return messages;
+    }
+
+    @Test
+    void benchmarkProfiles() throws Exception {
+        String[] messages = messages();
+        TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN);
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+
+        // Warm up the parser and writer so the first profile is not penalised by the JIT
+        write(new HdfsParquetProperties(), new File(tempDir, "warmup.parquet"), messages, parser, record);
+
+        System.out.printf("%-26s %12s %10s %12s%n", "profile", "bytes", "B/record", "records/s");
+        for (Map.Entry<String, Consumer<HdfsParquetProperties>> profile : profiles().entrySet()) {
+            HdfsParquetProperties properties = new HdfsParquetProperties();
+            profile.getValue().accept(properties);
+            File target = new File(tempDir, profile.getKey().replaceAll("\\W+", "_") + ".parquet");
+
+            long start = System.nanoTime();
+            write(properties, target, messages, parser, record);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%-26s %12d %10.1f %12.0f%n", profile.getKey(), target.length(),
+                    (double) target.length() / RECORDS, RECORDS / seconds);
+        }
+    }
+
+    private static void write(HdfsParquetProperties properties, File target, String[] messages,
+                              TelemetryRecordParser parser, TelemetryRecord record) throws Exception {
+        try (ParquetWriter<TelemetryRecord> writer = properties
+                .applyTo(TelemetryWriteSupport.builder(new Path(target.toURI())), properties.writerConfiguration(new Configuration()))
+                .build()) {
+            for (String message : messages) {
+                parser.parse(message, record);
+                writer.write(record);
+            }
+        }
+    }
+}
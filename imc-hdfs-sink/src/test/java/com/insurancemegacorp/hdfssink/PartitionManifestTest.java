@@ -0,0 +1,97 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionManifestTest {
+
+    @TempDir
+    File partitionDir;
+
+    private static PartitionManifest.Entry entry(String file, long minDriver, long maxDriver) {
+        return new PartitionManifest.Entry(file, 10, 1000, 1_000L, 2_000L, minDriver, maxDriver, null, null);
+    }
+
+    @Test
+    void testReplaceKeepsOneEntryPerFileAcrossInstances() throws Exception {
+        Path directory = new Path(partitionDir.toURI());
+        FileSystem fs = directory.getFileSystem(new Configuration());
+        PartitionManifest first = new PartitionManifest(new SimpleMeterRegistry(), "host-1");
+        PartitionManifest second = new PartitionManifest(new SimpleMeterRegistry(), "host-2");
+
+        first.add(directory, entry("a.parquet", 1, 5));
+        first.flush(fs);
+        first.add(directory, entry("b.parquet", 6, 9));
+        first.add(directory, entry("b.parquet", 6, 9));
+        second.add(directory, entry("c.parquet", 1, 1));
+        second.flush(fs);
+        // b.parquet is still queued and is compacted away in the same update
+        first.replace(fs, directory, List.of("a.parquet", "b.parquet"), entry("ab.parquet", 1, 9));
+
+        List<String> files = PartitionManifest.read(fs, directory).stream().map(PartitionManifest.Entry::file).sorted().toList();
+        assertEquals(List.of("ab.parquet", "c.parquet"), files);
+    }
+
+    @Test
+    void testFlushWritesEachPartitionOnceForAllQueuedFiles() throws Exception {
+        Path first = new Path(new File(partitionDir, "date=2024-01-01").toURI());
+        Path second = new Path(new File(partitionDir, "date=2024-01-02").toURI());
+        FileSystem fs = first.getFileSystem(new Configuration());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PartitionManifest manifest = new PartitionManifest(registry, "host-1");
+
+        for (int i = 0; i < 5; i++) {
+            manifest.add(first, entry("a" + i + ".parquet", i, i));
+        }
+        manifest.add(second, entry("b.parquet", 1, 1));
+        assertFalse(fs.exists(first));
+        manifest.flush(fs);
+        manifest.flush(fs);
+
+        assertEquals(5, PartitionManifest.read(fs, first).size());
+        assertEquals(1, PartitionManifest.read(fs, second).size());
+        assertEquals(2, registry.counter("hdfs_manifest_updates_total").count());
+        assertEquals(2, registry.counter("hdfs_namenode_rpc_total", "op", "rename").count());
+    }
+
+    @Test
+    void testReadFallsBackToTemporaryFileBetweenDeleteAndRename() throws Exception {
+        Path directory = new Path(partitionDir.toURI());
+        FileSystem fs = directory.getFileSystem(new Configuration());
+        PartitionManifest manifestWriter = new PartitionManifest(new SimpleMeterRegistry(), "host-1");
+        manifestWriter.add(directory, entry("a.parquet", 1, 5));
+        manifestWriter.flush(fs);
+        File manifest = new File(partitionDir, "_manifest-host-1.jsonl");
+        String content = Files.readString(manifest.toPath());
+        manifest.delete();
+        // A complete temporary file plus a line cut short by a crash
+        Files.writeString(new File(partitionDir, "._manifest-host-1.jsonl.tmp").toPath(), content + "{\"file\":\"b.par");
+
+        List<PartitionManifest.Entry> entries = PartitionManifest.read(fs, directory);
+
+        assertEquals(1, entries.size());
+        assertEquals("a.parquet", entries.get(0).file());
+    }
+
+    @Test
+    void testPredicatesOnlyExcludeWhatStatisticsRuleOut() {
+        PartitionManifest.Entry entry = entry("a.parquet", 10, 20);
+
+        assertTrue(entry.mayContainDriver(15));
+        assertFalse(entry.mayContainDriver(21));
+        assertTrue(entry.overlapsEventTime(1_500, 5_000));
+        assertFalse(entry.overlapsEventTime(2_001, 5_000));
+        // No vehicle_id statistics, so any vehicle may be present
+        assertTrue(entry.mayContainVehicle(42));
+    }
+}
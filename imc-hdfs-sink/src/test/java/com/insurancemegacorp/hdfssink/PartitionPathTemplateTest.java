@@ -0,0 +1,73 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionPathTemplateTest {
+
+    private String evaluate(String template, String json) throws Exception {
+        return evaluateCompiled(PartitionPathTemplate.compile(template), json);
+    }
+
+    private String evaluateCompiled(PartitionPathTemplate compiled, String json) throws Exception {
+        TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN, compiled.fieldNames());
+        TelemetryRecord record = parser.newRecord();
+        parser.parse(json, record);
+        return compiled.evaluate(record);
+    }
+
+    @Test
+    void testDefaultTemplateIsDatePartition() throws Exception {
+        assertEquals("date=" + LocalDate.now(), evaluate("", "{}"));
+        assertEquals("date=" + LocalDate.now(), evaluate(null, "{}"));
+    }
+
+    @Test
+    void testDriverPartitionStripsPrefix() throws Exception {
+        String template = "'date=' + T(java.time.LocalDate).now().toString() + '/driver_id=' + payload.driver_id";
+        assertEquals("date=" + LocalDate.now() + "/driver_id=400018",
+                evaluate(template, "{\"driver_id\":\"DRIVER-400018\",\"vehicle_id\":7}"));
+    }
+
+    @Test
+    void testArbitraryFieldsAndMissingValues() throws Exception {
+        String template = "T(java.time.LocalDate).now().toString() + '/' + payload.driverId + '/v=' + payload.vehicle_id";
+        PartitionPathTemplate compiled = PartitionPathTemplate.compile(template);
+        assertEquals(List.of("driverId", "vehicle_id"), compiled.fieldNames());
+
+        assertEquals(LocalDate.now() + "/abc/v=42", evaluate(template, "{\"driverId\":\"abc\",\"vehicle_id\":42}"));
+        assertEquals(LocalDate.now() + "/unknown/v=unknown", evaluate(template, "{\"driverId\":null}"));
+    }
+
+    @Test
+    void testAdjacentLiteralsAreMerged() {
+        PartitionPathTemplate compiled = PartitionPathTemplate.compile("'a+b' + '/c' + payload.x");
+        assertEquals(2, compiled.parts().size());
+        assertEquals(new PartitionPathTemplate.Literal("a+b/c"), compiled.parts().get(0));
+    }
+
+    @Test
+    void testEventTimeDatesPartitionByRecord() throws Exception {
+        PartitionPathTemplate compiled = PartitionPathTemplate.compile(
+                "'date=' + T(java.time.LocalDate).now().toString() + '/v=' + payload.vehicle_id", true);
+        Instant eventTime = Instant.parse("2024-01-15T12:00:00Z");
+        LocalDate eventDay = eventTime.atZone(ZoneId.systemDefault()).toLocalDate();
+
+        assertEquals("date=" + eventDay + "/v=7", evaluateCompiled(compiled, "{\"event_time\":\"2024-01-15T12:00:00Z\",\"vehicle_id\":7}"));
+        assertEquals("date=" + LocalDate.now() + "/v=7", evaluateCompiled(compiled, "{\"vehicle_id\":7}"));
+
+        TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN, compiled.fieldNames());
+        TelemetryRecord record = parser.newRecord();
+        parser.parse("{\"event_time\":\"2024-01-15T12:00:00Z\"}", record);
+        assertEquals(eventDay.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                compiled.partitionEndMillis(record));
+        assertEquals(Long.MAX_VALUE, PartitionPathTemplate.compile("").partitionEndMillis(record));
+    }
+}
@@ -0,0 +1,94 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmallFileCompactorTest {
+
+    @TempDir
+    File partitionDir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN);
+
+    private SmallFileCompactor newCompactor() {
+        return new SmallFileCompactor(new ManagedFileSystem(URI.create("file:///"), new Configuration(), 3, registry), (short) 1, registry, "host-1", 1024 * 1024, 64 * 1024 * 1024, 2,
+                new PartitionManifest(registry, "host-1"));
+    }
+
+    private void writeFile(String name, int firstVehicle, int count) throws Exception {
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        try (ParquetWriter<TelemetryRecord> writer = TelemetryWriteSupport.builder(new Path(new File(partitionDir, name).toURI()))
+                .withConf(new Configuration())
+                .build()) {
+            for (int i = 0; i < count; i++) {
+                parser.parse("{\"vehicle_id\":" + (firstVehicle + i) + ",\"vin\":\"1HGBH41JXMN109186\"}", record);
+                writer.write(record);
+            }
+        }
+    }
+
+    private List<String> parquetFiles() {
+        return Arrays.stream(partitionDir.list())
+                .filter(name -> name.endsWith(".parquet") && !name.startsWith("."))
+                .sorted()
+                .toList();
+    }
+
+    @Test
+    void testMergesOwnSmallFilesAndKeepsEveryRecord() throws Exception {
+        writeFile("telemetry-20240115_100000-host-1-writer-A-1.parquet", 0, 3);
+        writeFile("telemetry-20240115_100001-host-1-writer-B-2.parquet", 3, 4);
+        writeFile("telemetry-20240115_100002-host-1-writer-C-3.parquet", 7, 5);
+        writeFile("telemetry-20240115_100003-host-2-writer-A-4.parquet", 100, 2);
+
+        SmallFileCompactor.Result result = newCompactor().compact(new Path(partitionDir.toURI()));
+
+        assertEquals(3, result.filesMerged());
+        assertEquals(1, result.filesWritten());
+        List<String> files = parquetFiles();
+        assertEquals(2, files.size());
+        // Another instance's file is never touched
+        assertTrue(files.contains("telemetry-20240115_100003-host-2-writer-A-4.parquet"));
+        String merged = files.stream().filter(name -> name.contains("-compacted-")).findFirst().orElseThrow();
+        assertEquals(12, TelemetryWriteSupportTest.readGroups(new Path(new File(partitionDir, merged).toURI())).size());
+        assertEquals(3, registry.counter("hdfs_compaction_files_merged_total").count());
+
+        List<PartitionManifest.Entry> manifest = PartitionManifest.read(
+                new Path(partitionDir.toURI()).getFileSystem(new Configuration()), new Path(partitionDir.toURI()));
+        assertEquals(1, manifest.size());
+        assertEquals(merged, manifest.get(0).file());
+        assertEquals(12, manifest.get(0).rows());
+        assertEquals(new File(partitionDir, merged).length(), manifest.get(0).bytes());
+        assertEquals(0L, manifest.get(0).minVehicleId());
+        assertEquals(11L, manifest.get(0).maxVehicleId());
+        assertEquals(result.bytesRewritten(), registry.counter("hdfs_compaction_bytes_rewritten_total").count());
+    }
+
+    @Test
+    void testInterruptedMergeIsCompletedOnNextRun() throws Exception {
+        writeFile("telemetry-20240115_100000-host-1-writer-A-1.parquet", 0, 3);
+        writeFile("telemetry-20240115_100001-host-1-compacted-9.parquet", 0, 3);
+        // Crash after the merged file was renamed into place but before its inputs were deleted
+        Files.writeString(new File(partitionDir, ".compaction-9.pending").toPath(),
+                "telemetry-20240115_100001-host-1-compacted-9.parquet\ntelemetry-20240115_100000-host-1-writer-A-1.parquet\n");
+
+        newCompactor().compact(new Path(partitionDir.toURI()));
+
+        assertEquals(List.of("telemetry-20240115_100001-host-1-compacted-9.parquet"), parquetFiles());
+        assertFalse(new File(partitionDir, ".compaction-9.pending").exists());
+    }
+}
@@ -0,0 +1,205 @@
+package com.insurancemegacorp.hdfssink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TelemetryWriteSupportTest {
+
+    @TempDir
+    File tempDir;
+
+    private final TelemetryRecordParser parser = new TelemetryRecordParser(new JsonFactory(), TelemetrySchema.PLAN);
+
+    @Test
+    void testParserFillsSlotsAndSkipsUnknownFields() throws Exception {
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        parser.parse("""
+                {"policy_id":"200018","vehicle_id":300021,"g_force":1.18,"extra":{"nested":[1,2]},
+                 "vin":"1HGBH41JXMN109186","driver_id":null,"device_charging":true,"speed_limit_mph":35.9}
+                """, record);
+
+        assertEquals(200018L, record.getLong(index("policy_id")));
+        assertEquals(300021L, record.getLong(index("vehicle_id")));
+        assertEquals(1.18, record.getDouble(index("g_force")));
+        assertEquals("1HGBH41JXMN109186", record.getString(index("vin")));
+        assertTrue(record.getBoolean(index("device_charging")));
+        assertEquals(35L, record.getLong(index("speed_limit_mph")));
+        assertFalse(record.isPresent(index("driver_id")));
+        assertFalse(record.isPresent(index("gps_latitude")));
+    }
+
+    @Test
+    void testParserRejectsNonObjectPayload() {
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        assertThrows(Exception.class, () -> parser.parse("[1,2,3]", record));
+    }
+
+    @Test
+    void testRoundTripThroughParquet() throws Exception {
+        Path file = new Path(new File(tempDir, "roundtrip.parquet").toURI());
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+
+        try (ParquetWriter<TelemetryRecord> writer = TelemetryWriteSupport.builder(file)
+                .withConf(new Configuration())
+                .build()) {
+            parser.parse("{\"vehicle_id\":1,\"vin\":\"A\",\"gps_latitude\":33.77,\"device_screen_on\":false,"
+                    + "\"event_time\":\"2024-01-15T10:30:45.123Z\"}", record);
+            writer.write(record);
+            parser.parse("{\"vehicle_id\":2,\"driver_id\":400018}", record);
+            writer.write(record);
+        }
+
+        List<Group> groups = readGroups(file);
+
+        assertEquals(2, groups.size());
+        assertEquals(1L, groups.get(0).getLong("vehicle_id", 0));
+        assertEquals("A", groups.get(0).getString("vin", 0));
+        assertEquals(33.77, groups.get(0).getDouble("gps_latitude", 0));
+        assertFalse(groups.get(0).getBoolean("device_screen_on", 0));
+        assertEquals(1_705_314_645_123L, groups.get(0).getLong("event_time", 0));
+        assertEquals(0, groups.get(0).getFieldRepetitionCount("driver_id"));
+        assertEquals(2L, groups.get(1).getLong("vehicle_id", 0));
+        assertEquals(400018, groups.get(1).getInteger("driver_id", 0));
+        assertEquals(0, groups.get(1).getFieldRepetitionCount("vin"));
+    }
+
+    @Test
+    void testPartitionWriterTracksBufferedSizeWithoutFileStatus() throws Exception {
+        File target = new File(tempDir, "sized.parquet");
+        Path file = new Path(target.toURI());
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        PartitionWriter writer = new PartitionWriter("writer-A", "date=2024-01-15", file.toString(),
+                TelemetryWriteSupport.builder(file).withConf(new Configuration()).build());
+
+        long before = writer.dataSize();
+        for (int i = 0; i < 1000; i++) {
+            parser.parse("{\"vehicle_id\":" + i + ",\"vin\":\"1HGBH41JXMN109186\",\"g_force\":1.18}", record);
+            writer.write(record, WriteAheadSpool.NO_SEGMENT);
+        }
+
+        // The row group is still in memory, so the file itself holds little more than the header
+        assertTrue(writer.dataSize() > before);
+        assertTrue(writer.dataSize() > target.length());
+        writer.close();
+    }
+
+    @Test
+    void testSortedRunsAreWrittenByDriverThenEventTime() throws Exception {
+        Path file = new Path(new File(tempDir, "sorted.parquet").toURI());
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        PartitionWriter writer = new PartitionWriter("writer-A", "date=2024-01-15", file.toString(),
+                TelemetryWriteSupport.builder(file).withConf(new Configuration()).build(), 4);
+
+        String[] messages = {
+                "{\"driver_id\":7,\"event_time\":3000}",
+                "{\"driver_id\":5,\"event_time\":\"1970-01-01T00:00:09Z\"}",
+                "{\"event_time\":1000}",
+                "{\"driver_id\":5,\"event_time\":2000}",
+                // Second run, written on close
+                "{\"driver_id\":9,\"event_time\":1000}",
+                "{\"driver_id\":1,\"event_time\":5000}"
+        };
+        for (String message : messages) {
+            parser.parse(message, record);
+            writer.write(record, WriteAheadSpool.NO_SEGMENT);
+        }
+        writer.close();
+
+        List<String> order = new ArrayList<>();
+        for (Group group : readGroups(file)) {
+            String driver = group.getFieldRepetitionCount("driver_id") == 0 ? "-" : String.valueOf(group.getInteger("driver_id", 0));
+            order.add(driver + "@" + group.getLong("event_time", 0));
+        }
+        assertEquals(List.of("5@9000", "5@2000000", "7@3000000", "-@1000000", "1@5000000", "9@1000000"), order);
+    }
+
+    @Test
+    void testClosedWriterHandsItsSortRunBufferToTheNextWriter() throws Exception {
+        RunBufferPool runBuffers = new RunBufferPool(4);
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        Path first = new Path(new File(tempDir, "first.parquet").toURI());
+        PartitionWriter writer = new PartitionWriter("writer-A", "date=2024-01-15", first.toString(),
+                TelemetryWriteSupport.builder(first).withConf(new Configuration()).build(), runBuffers, null);
+        for (int i = 0; i < 3; i++) {
+            parser.parse("{\"driver_id\":" + (9 - i) + "}", record);
+            writer.write(record, WriteAheadSpool.NO_SEGMENT);
+        }
+        writer.close();
+        assertEquals(1, runBuffers.idle());
+
+        Path second = new Path(new File(tempDir, "second.parquet").toURI());
+        writer = new PartitionWriter("writer-A", "date=2024-01-16", second.toString(),
+                TelemetryWriteSupport.builder(second).withConf(new Configuration()).build(), runBuffers, null);
+        assertEquals(0, runBuffers.idle());
+        parser.parse("{\"driver_id\":1}", record);
+        writer.write(record, WriteAheadSpool.NO_SEGMENT);
+        writer.close();
+
+        assertEquals(3, readGroups(first).size());
+        // The reused buffer starts empty: nothing of the first file's run leaks into the second
+        List<Group> rows = readGroups(second);
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.get(0).getInteger("driver_id", 0));
+        assertEquals(1, runBuffers.idle());
+    }
+
+    @Test
+    void testBufferedBytesCountOnlyTheUnwrittenRowGroup() throws Exception {
+        Path file = new Path(new File(tempDir, "buffered.parquet").toURI());
+        Configuration conf = new Configuration();
+        TrackedOutputFile output = new TrackedOutputFile(HadoopOutputFile.fromPath(file, conf));
+        PartitionWriter writer = new PartitionWriter("writer-A", "date=2024-01-15", file.toString(),
+                TelemetryWriteSupport.builder(output).withConf(conf).build(), null, output);
+        TelemetryRecord record = TelemetrySchema.PLAN.newRecord();
+        for (int i = 0; i < 200; i++) {
+            parser.parse("{\"vehicle_id\":" + i + ",\"vin\":\"VIN-" + i + "\"}", record);
+            writer.write(record, WriteAheadSpool.NO_SEGMENT);
+        }
+
+        // Nothing but the magic bytes has reached the file yet
+        assertTrue(output.position() <= 4);
+        assertTrue(writer.refreshBufferedBytes() > 0);
+        assertEquals(writer.refreshBufferedBytes(), writer.bufferedBytes());
+
+        writer.close();
+        assertEquals(0, writer.bufferedBytes());
+        assertEquals(200, readGroups(file).size());
+    }
+
+    static List<Group> readGroups(Path file) throws Exception {
+        List<Group> groups = new ArrayList<>();
+        ParquetReader.Builder<Group> builder = new ParquetReader.Builder<>(HadoopInputFile.fromPath(file, new Configuration())) {
+            @Override
+            protected ReadSupport<Group> getReadSupport() {
+                return new GroupReadSupport();
+            }
+        };
+        try (ParquetReader<Group> reader = builder.build()) {
+            Group group;
+            while ((group = reader.read()) != null) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    private static int index(String field) {
+        return TelemetrySchema.SCHEMA.getFieldIndex(field);
+    }
+}
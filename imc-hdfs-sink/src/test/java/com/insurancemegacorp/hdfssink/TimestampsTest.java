@@ -0,0 +1,36 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimestampsTest {
+
+    @Test
+    void testCanonicalAndFallbackFormatsAgree() {
+        long expected = Instant.parse("2024-01-15T10:30:45.123Z").toEpochMilli();
+
+        assertEquals(expected, Timestamps.parseMillis("2024-01-15T10:30:45.123Z"));
+        assertEquals(expected, Timestamps.parseMillis("2024-01-15T10:30:45.123456789Z"));
+        assertEquals(expected, Timestamps.parseMillis("2024-01-15T12:30:45.123+02:00"));
+        assertEquals(expected, Timestamps.parseMillis("2024-01-15T10:30:45.123"));
+        assertEquals(expected - 123, Timestamps.parseMillis("2024-01-15T10:30:45Z"));
+        assertEquals(expected - 23, Timestamps.parseMillis("2024-01-15T10:30:45.1Z"));
+    }
+
+    @Test
+    void testEpochNumbersAreSecondsOrMillisByMagnitude() {
+        assertEquals(1_705_314_645_000L, Timestamps.parseMillis("1705314645"));
+        assertEquals(1_705_314_645_123L, Timestamps.parseMillis("1705314645123"));
+        assertEquals(1_705_314_645_000L, Timestamps.epochNumberToMillis(1_705_314_645L));
+    }
+
+    @Test
+    void testRejectsMalformedText() {
+        assertThrows(DateTimeException.class, () -> Timestamps.parseMillis("2024-02-30T10:30:45Z"));
+        assertThrows(DateTimeException.class, () -> Timestamps.parseMillis("yesterday"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadSpoolTest {
+
+    @TempDir
+    Path spoolDir;
+
+    @Test
+    void testUnreleasedMessagesAreReplayedInOrder() throws Exception {
+        WriteAheadSpool spool = new WriteAheadSpool(spoolDir, 4096, false);
+        assertTrue(spool.recover().isEmpty());
+        long first = spool.append("{\"vehicle_id\":1}");
+        spool.append("{\"vehicle_id\":2}");
+        spool.append("{\"vehicle_id\":3}");
+        spool.release(first, 1);
+        // Simulate a crash: the spool is never closed
+
+        WriteAheadSpool restarted = new WriteAheadSpool(spoolDir, 4096, false);
+        List<SinkMessage> recovered = restarted.recover();
+
+        // Releases only delete whole segments, so every record of a live segment is replayed
+        assertEquals(List.of("{\"vehicle_id\":1}", "{\"vehicle_id\":2}", "{\"vehicle_id\":3}"),
+                recovered.stream().map(SinkMessage::text).toList());
+        assertEquals(3, restarted.pendingMessages());
+    }
+
+    @Test
+    void testBatchAppendSpansSegmentsAndIsReplayed() throws Exception {
+        WriteAheadSpool spool = new WriteAheadSpool(spoolDir, 64, true);
+        spool.recover();
+        List<byte[]> batch = Stream.of("{\"vehicle_id\":1}", "{\"vehicle_id\":2}", "{\"vehicle_id\":3}", "{\"vehicle_id\":4}")
+                .map(m -> m.getBytes(StandardCharsets.UTF_8))
+                .toList();
+
+        long[] segments = spool.appendAll(batch);
+
+        assertEquals(4, segments.length);
+        assertNotEquals(segments[0], segments[3]);
+        assertEquals(List.of("{\"vehicle_id\":1}", "{\"vehicle_id\":2}", "{\"vehicle_id\":3}", "{\"vehicle_id\":4}"),
+                new WriteAheadSpool(spoolDir, 64, false).recover().stream().map(SinkMessage::text).toList());
+    }
+
+    @Test
+    void testSealedSegmentDeletedOnceAllRecordsReleased() throws Exception {
+        WriteAheadSpool spool = new WriteAheadSpool(spoolDir, 64, false);
+        spool.recover();
+        String message = "x".repeat(40);
+        long first = spool.append(message);
+        long second = spool.append(message);
+        assertNotEquals(first, second);
+        assertEquals(2, segmentFiles());
+
+        spool.release(first, 1);
+        assertEquals(1, segmentFiles());
+
+        spool.release(second, 1);
+        spool.close();
+        assertEquals(0, segmentFiles());
+        assertTrue(new WriteAheadSpool(spoolDir, 64, false).recover().isEmpty());
+    }
+
+    @Test
+    void testOversizedMessageGetsDedicatedSegment() throws Exception {
+        WriteAheadSpool spool = new WriteAheadSpool(spoolDir, 32, true);
+        spool.recover();
+        String large = "y".repeat(1000);
+        spool.append(large);
+
+        List<SinkMessage> recovered = new WriteAheadSpool(spoolDir, 32, false).recover();
+        assertEquals(1, recovered.size());
+        assertEquals(large, recovered.get(0).text());
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.insurancemegacorp.hdfssink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    void testBackoffDoublesUntilTheCircuitOpens() {
+        WriteCircuitBreaker circuit = new WriteCircuitBreaker(3, 100, 1_000, now::get);
+        assertEquals(0, circuit.permit());
+
+        circuit.recordFailure();
+        assertEquals(WriteCircuitBreaker.State.CLOSED, circuit.state());
+        assertEquals(100, circuit.permit());
+        now.addAndGet(100);
+        assertEquals(0, circuit.permit());
+
+        circuit.recordFailure();
+        assertEquals(200, circuit.permit());
+        now.addAndGet(200);
+
+        circuit.recordFailure();
+        assertEquals(WriteCircuitBreaker.State.OPEN, circuit.state());
+        assertEquals(400, circuit.permit());
+        assertEquals(1, circuit.openedCount());
+    }
+
+    @Test
+    void testOnlyOneLaneProbesAndTheOutcomeDecides() {
+        WriteCircuitBreaker circuit = new WriteCircuitBreaker(1, 100, 250, now::get);
+        circuit.recordFailure();
+        now.addAndGet(100);
+
+        assertEquals(0, circuit.permit());
+        assertEquals(WriteCircuitBreaker.State.HALF_OPEN, circuit.state());
+        assertTrue(circuit.permit() > 0, "a second lane must wait for the probe");
+
+        // The probe found nothing to write, so another lane may try
+        circuit.release();
+        assertEquals(0, circuit.permit());
+
+        circuit.recordFailure();
+        assertEquals(WriteCircuitBreaker.State.OPEN, circuit.state());
+        assertEquals(200, circuit.permit());
+        assertEquals(2, circuit.openedCount());
+        now.addAndGet(200);
+
+        assertEquals(0, circuit.permit());
+        circuit.recordFailure();
+        // Capped at the maximum backoff
+        assertEquals(250, circuit.permit());
+        now.addAndGet(250);
+
+        assertEquals(0, circuit.permit());
+        circuit.recordSuccess();
+        assertEquals(WriteCircuitBreaker.State.CLOSED, circuit.state());
+        assertEquals(0, circuit.consecutiveFailures());
+        assertEquals(0, circuit.permit());
+        assertEquals(0, circuit.permit());
+    }
+}
@@ -0,0 +1,90 @@
+package com.insurancemegacorp.hdfssink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end throughput of the sink against the local {@code file://} filesystem.
+ *
+ * Skipped by default; run with {@code mvn test -Dtest=WriterPipelineBenchmarkTest -Dhdfs.benchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "hdfs.benchmark", matches = "true")
+class WriterPipelineBenchmarkTest {
+
+    private static final int MESSAGES = Integer.getInteger("hdfs.benchmark.messages", 200_000);
+
+    private static final String MESSAGE = """
+            {"policy_id":200018,"vehicle_id":300021,"vin":"1HGBH41JXMN109186","event_time":"2024-01-15T10:30:45.123Z",
+             "speed_mph":32.5,"speed_limit_mph":35,"current_street":"Peachtree Street","g_force":1.18,
+             "driver_id":"DRIVER-400018","gps_latitude":33.7701,"gps_longitude":-84.3876,"gps_altitude":351.59,
+             "gps_speed":14.5,"gps_bearing":184.89,"gps_accuracy":2.8,"gps_satellite_count":11,"gps_fix_time":150,
+             "accelerometer_x":0.1234,"accelerometer_y":-0.0567,"accelerometer_z":0.9876,
+             "gyroscope_x":0.02,"gyroscope_y":-0.01,"gyroscope_z":0.15,
+             "magnetometer_x":25.74,"magnetometer_y":-8.73,"magnetometer_z":40.51,"magnetometer_heading":73.51,
+             "barometric_pressure":1013.25,"device_battery_level":82.0,"device_signal_strength":-63,
+             "device_screen_on":false,"device_charging":true}
+            """.replace("\n", "");
+
+    @TempDir
+    File outputDir;
+
+    @Test
+    void benchmarkContinuousPipelineThroughput() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            sink.accept(MESSAGE);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (registry.counter("hdfs_messages_written_total").count() < MESSAGES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long written = System.nanoTime() - start;
+        sink.shutdown();
+        long closed = System.nanoTime() - start;
+
+        assertEquals(MESSAGES, registry.counter("hdfs_messages_written_total").count());
+        System.out.printf("Pipeline throughput: %d messages written in %d ms (%.0f msg/s), %d ms including file close%n",
+                MESSAGES, TimeUnit.NANOSECONDS.toMillis(written), MESSAGES / (written / 1e9), TimeUnit.NANOSECONDS.toMillis(closed));
+    }
+
+    @Test
+    void benchmarkBatchPipelineThroughput() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HdfsSink sink = LocalSinkFixture.startSink(registry, outputDir);
+        int batchSize = 100;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i += batchSize) {
+            // The binder hands over freshly received bodies, so every batch gets its own arrays
+            List<byte[]> payloads = new ArrayList<>(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                payloads.add(MESSAGE.getBytes(StandardCharsets.UTF_8));
+            }
+            sink.acceptBatch(MessageBuilder.withPayload(payloads).build());
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (registry.counter("hdfs_messages_written_total").count() < MESSAGES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long written = System.nanoTime() - start;
+        sink.shutdown();
+
+        assertEquals(MESSAGES, registry.counter("hdfs_messages_written_total").count());
+        System.out.printf("Batch pipeline throughput: %d messages written in %d ms (%.0f msg/s)%n",
+                MESSAGES, TimeUnit.NANOSECONDS.toMillis(written), MESSAGES / (written / 1e9));
+    }
+}
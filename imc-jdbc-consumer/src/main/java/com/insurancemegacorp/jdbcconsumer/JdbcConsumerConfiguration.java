@@ -53,9 +53,6 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.MultiValueMap;
 
-import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Timer;
-
 /**
  * Enhanced Auto-configuration for JDBC consumer with Prometheus metrics.
  * 
@@ -74,14 +71,14 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
     private static final SpelExpressionParser EXPRESSION_PARSER = new SpelExpressionParser();
 
     private final JdbcConsumerProperties properties;
-    private final MeterRegistry meterRegistry;
+    private final JdbcConsumerMetrics metrics;
     private final ApplicationContext applicationContext;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    public JdbcConsumerConfiguration(JdbcConsumerProperties properties, MeterRegistry meterRegistry, ApplicationContext applicationContext) {
+    public JdbcConsumerConfiguration(JdbcConsumerProperties properties, JdbcConsumerMetrics metrics, ApplicationContext applicationContext) {
         this.properties = properties;
-        this.meterRegistry = meterRegistry;
+        this.metrics = metrics;
         this.applicationContext = applicationContext;
     }
 
@@ -137,10 +134,7 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
             insertIntoDatabase(data);
             
             // Record metrics
-            if (properties.isEnableMetrics()) {
-                meterRegistry.counter(properties.getMetricsPrefix() + "_messages_processed_total",
-                                    "table", properties.getTableName()).increment();
-            }
+            metrics.processed();
             
             LOGGER.debug("Successfully processed message for table: " + properties.getTableName());
             
@@ -148,11 +142,7 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
             LOGGER.error("Error processing message in JDBC consumer: " + e.getMessage(), e);
             
             // Record error metrics
-            if (properties.isEnableMetrics()) {
-                meterRegistry.counter(properties.getMetricsPrefix() + "_messages_failed_total",
-                                    "table", properties.getTableName(),
-                                    "error", e.getClass().getSimpleName()).increment();
-            }
+            metrics.failed(e);
             
             throw new RuntimeException("Failed to process message", e);
         }
@@ -204,12 +194,8 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
         JdbcMessageHandler jdbcMessageHandler = new JdbcMessageHandler(dataSource, sql) {
             @Override
             protected void handleMessageInternal(final Message<?> message) {
-                Timer.Sample sample = null;
-                if (properties.isEnableMetrics()) {
-                    sample = Timer.start(meterRegistry);
-                    meterRegistry.counter(properties.getMetricsPrefix() + "_messages_total", 
-                                        "table", properties.getTableName()).increment();
-                }
+                long started = System.nanoTime();
+                metrics.received();
 
                 try {
                     Message<?> convertedMessage = message;
@@ -240,30 +226,20 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
                     
                     super.handleMessageInternal(convertedMessage);
                     
-                    if (properties.isEnableMetrics()) {
-                        meterRegistry.counter(properties.getMetricsPrefix() + "_messages_success", 
-                                            "table", properties.getTableName()).increment();
-                    }
+                    metrics.succeeded();
                     
                 } catch (Exception e) {
-                    if (properties.isEnableMetrics()) {
-                        meterRegistry.counter(properties.getMetricsPrefix() + "_messages_error", 
-                                            "table", properties.getTableName(),
-                                            "error", e.getClass().getSimpleName()).increment();
-                    }
+                    metrics.handlerError(e);
                     LOGGER.error("Error processing message for table '" + properties.getTableName() + "': " + e.getMessage(), e);
                     throw e;
                 } finally {
-                    if (sample != null && properties.isEnableMetrics()) {
-                        sample.stop(meterRegistry.timer(properties.getMetricsPrefix() + "_message_duration",
-                                                      "table", properties.getTableName()));
-                    }
+                    metrics.recordDuration(started);
                 }
             }
         };
 
         SqlParameterSourceFactory parameterSourceFactory = new ParameterFactory(columnExpressionVariations,
-                evaluationContext, meterRegistry, properties);
+                evaluationContext, metrics);
         jdbcMessageHandler.setSqlParameterSourceFactory(parameterSourceFactory);
         return jdbcMessageHandler;
     }
@@ -287,7 +263,7 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
     }
 
     private record ParameterFactory(MultiValueMap<String, Expression> columnExpressions,
-            EvaluationContext context, MeterRegistry meterRegistry, JdbcConsumerProperties properties) 
+            EvaluationContext context, JdbcConsumerMetrics metrics) 
             implements SqlParameterSourceFactory {
 
         @Override
@@ -326,10 +302,7 @@ public class JdbcConsumerConfiguration implements Consumer<String> {
             }
             
             // Record metrics for parameter extraction
-            if (properties.isEnableMetrics()) {
-                meterRegistry.counter(properties.getMetricsPrefix() + "_null_parameters_total",
-                                    "table", properties.getTableName()).increment(nullValueCount);
-            }
+            metrics.nullParameters(nullValueCount);
             
             return parameterSource;
         }
@@ -0,0 +1,107 @@
+package com.insurancemegacorp.jdbcconsumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the JDBC consumer, resolved once from {@code metricsPrefix} and the table name
+ * instead of being looked up in the registry on every message. Error counters are tagged
+ * with the exception type, so they are cached per type the first time it occurs.
+ *
+ * One instance is shared by every consumer path, so each meter is registered once. With
+ * metrics disabled nothing is registered and every method is a no-op.
+ */
+@Component
+final class JdbcConsumerMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final String prefix;
+    private final String table;
+    private final boolean enabled;
+    private final Counter messages;
+    private final Counter succeeded;
+    private final Counter processed;
+    private final Counter nullParameters;
+    private final Timer duration;
+    private final Map<Class<?>, Counter> handlerErrors = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Counter> failures = new ConcurrentHashMap<>();
+
+    JdbcConsumerMetrics(MeterRegistry meterRegistry, JdbcConsumerProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.prefix = properties.getMetricsPrefix();
+        this.table = properties.getTableName();
+        this.enabled = properties.isEnableMetrics();
+        this.messages = enabled ? meterRegistry.counter(prefix + "_messages_total", "table", table) : null;
+        this.succeeded = enabled ? meterRegistry.counter(prefix + "_messages_success", "table", table) : null;
+        this.processed = enabled ? meterRegistry.counter(prefix + "_messages_processed_total", "table", table) : null;
+        this.nullParameters = enabled ? meterRegistry.counter(prefix + "_null_parameters_total", "table", table) : null;
+        this.duration = enabled ? meterRegistry.timer(prefix + "_message_duration", "table", table) : null;
+    }
+
+    /**
+     * A message reached the JDBC message handler.
+     */
+    void received() {
+        if (enabled) {
+            messages.increment();
+        }
+    }
+
+    /**
+     * The JDBC message handler inserted a message.
+     */
+    void succeeded() {
+        if (enabled) {
+            succeeded.increment();
+        }
+    }
+
+    /**
+     * The JDBC message handler failed on a message.
+     */
+    void handlerError(Exception e) {
+        if (enabled) {
+            handlerErrors.computeIfAbsent(e.getClass(),
+                    type -> meterRegistry.counter(prefix + "_messages_error", "table", table, "error", type.getSimpleName()))
+                    .increment();
+        }
+    }
+
+    /**
+     * The direct {@code Consumer<String>} path inserted a message.
+     */
+    void processed() {
+        if (enabled) {
+            processed.increment();
+        }
+    }
+
+    /**
+     * The direct {@code Consumer<String>} path failed on a message.
+     */
+    void failed(Exception e) {
+        if (enabled) {
+            failures.computeIfAbsent(e.getClass(),
+                    type -> meterRegistry.counter(prefix + "_messages_failed_total", "table", table, "error", type.getSimpleName()))
+                    .increment();
+        }
+    }
+
+    void nullParameters(int count) {
+        if (enabled) {
+            nullParameters.increment(count);
+        }
+    }
+
+    void recordDuration(long startNanos) {
+        if (enabled) {
+            duration.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.insurancemegacorp.jdbcconsumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,7 +23,7 @@ import java.util.function.Consumer;
 public class JdbcConsumerSink implements Consumer<String> {
     private static final Logger log = LoggerFactory.getLogger(JdbcConsumerSink.class);
     
-    private final MeterRegistry meterRegistry;
+    private final JdbcConsumerMetrics metrics;
     private final JdbcConsumerProperties properties;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private NamedParameterJdbcTemplate jdbcTemplate;
@@ -32,8 +31,8 @@ public class JdbcConsumerSink implements Consumer<String> {
     @Autowired
     private DataSource dataSource;
 
-    public JdbcConsumerSink(MeterRegistry meterRegistry, JdbcConsumerProperties properties) {
-        this.meterRegistry = meterRegistry;
+    public JdbcConsumerSink(JdbcConsumerMetrics metrics, JdbcConsumerProperties properties) {
+        this.metrics = metrics;
         this.properties = properties;
     }
 
@@ -55,10 +54,7 @@ public class JdbcConsumerSink implements Consumer<String> {
             insertIntoDatabase(data);
             
             // Record success metrics
-            if (properties.isEnableMetrics()) {
-                meterRegistry.counter(properties.getMetricsPrefix() + "_messages_processed_total",
-                                    "table", properties.getTableName()).increment();
-            }
+            metrics.processed();
             
             log.debug("Successfully processed message for table: {}", properties.getTableName());
             
@@ -66,11 +62,7 @@ public class JdbcConsumerSink implements Consumer<String> {
             log.error("Error processing message in JDBC consumer sink: {}", e.getMessage(), e);
             
             // Record error metrics
-            if (properties.isEnableMetrics()) {
-                meterRegistry.counter(properties.getMetricsPrefix() + "_messages_failed_total",
-                                    "table", properties.getTableName(),
-                                    "error", e.getClass().getSimpleName()).increment();
-            }
+            metrics.failed(e);
             
             throw new RuntimeException("Failed to process message", e);
         }
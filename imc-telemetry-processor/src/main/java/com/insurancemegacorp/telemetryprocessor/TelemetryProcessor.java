@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -15,13 +16,18 @@ import java.util.function.Function;
 public class TelemetryProcessor {
     private static final Logger log = LoggerFactory.getLogger(TelemetryProcessor.class);
     private final ObjectMapper mapper = new ObjectMapper();
-    private final MeterRegistry meterRegistry;
+    // Resolved once; looking them up per message costs a registry lookup and tag allocation
+    private final Counter messagesCounter;
+    private final Counter vehicleEventsCounter;
+    private final Counter invalidMessagesCounter;
 
     @Value("${telemetry.accident.gforce.threshold:5.0}")
     private double accidentGforceThreshold;
 
     public TelemetryProcessor(MeterRegistry meterRegistry) {
-        this.meterRegistry = meterRegistry;
+        this.messagesCounter = meterRegistry.counter("telemetry_messages_total", "binding", "vehicleEventsOut-in-0");
+        this.vehicleEventsCounter = meterRegistry.counter("telemetry_vehicle_events_total");
+        this.invalidMessagesCounter = meterRegistry.counter("telemetry_invalid_messages_total");
     }
 
     @Bean
@@ -29,7 +35,7 @@ public class TelemetryProcessor {
         // Emit ONLY vehicle events (rule: g_force > threshold) from already-flattened JSON
         return jsonMessage -> {
             // Count every processed message
-            meterRegistry.counter("telemetry_messages_total", "binding", "vehicleEventsOut-in-0").increment();
+            messagesCounter.increment();
             try {
                 JsonNode root = mapper.readTree(jsonMessage);
                 double g = root.path("g_force").asDouble(0.0);
@@ -41,7 +47,7 @@ public class TelemetryProcessor {
                 
                 if (g > accidentGforceThreshold) {
                     log.info("Vehicle event detected g_force={} (threshold={})", g, accidentGforceThreshold);
-                    meterRegistry.counter("telemetry_vehicle_events_total").increment();
+                    vehicleEventsCounter.increment();
                     // Message is already flattened, just pass it through
                     return jsonMessage;
                 } else {
@@ -53,7 +59,7 @@ public class TelemetryProcessor {
                 return null;
             } catch (Exception e) {
                 log.error("Failed to parse telemetry JSON: {}", e.getMessage());
-                meterRegistry.counter("telemetry_invalid_messages_total").increment();
+                invalidMessagesCounter.increment();
                 return null;
             }
         };